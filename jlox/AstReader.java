@@ -0,0 +1,308 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Rebuilds an AST written by AstWriter, including resolver depths and switch
+// jump tables, so the result can run without going through the front end.
+// Throws IllegalStateException if the data is malformed.
+public class AstReader {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final ByteBuffer in;
+    // Symbol ids of the names in the pool
+    private final int[] names;
+    private final Object[] constants;
+    private final LineTable[] tables;
+    private LineTable lines;
+    private int lastPosition = 0;
+
+    // A reader positioned inside a function body, sharing the pools
+    private AstReader(ByteBuffer in, AstReader pools, int position) {
+        this.in = in;
+        this.names = pools.names;
+        this.constants = pools.constants;
+        this.tables = pools.tables;
+        this.lastPosition = position;
+    }
+
+    AstReader(ByteBuffer in) {
+        this.in = in;
+
+        names = new int[readInt()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = SymbolTable.id(readString());
+        }
+
+        constants = new Object[readInt()];
+        for (int i = 0; i < constants.length; i++) {
+            int kind = in.get();
+            switch (kind) {
+                case AstWriter.CONSTANT_FALSE: constants[i] = false; break;
+                case AstWriter.CONSTANT_TRUE: constants[i] = true; break;
+                case AstWriter.CONSTANT_NUMBER: constants[i] = Double.longBitsToDouble(in.getLong()); break;
+                case AstWriter.CONSTANT_STRING: constants[i] = readString(); break;
+                default: throw new IllegalStateException("Bad constant kind " + kind + ".");
+            }
+        }
+
+        tables = new LineTable[readInt()];
+        for (int i = 0; i < tables.length; i++) {
+            int[] starts = new int[readInt()];
+            int last = 0;
+            for (int j = 0; j < starts.length; j++) {
+                last += readInt();
+                starts[j] = last;
+            }
+            tables[i] = new LineTable(starts, starts.length);
+        }
+    }
+
+    List<Stmt> readStatements() {
+        lines = readTable();
+        return readStatementList();
+    }
+
+    // The line table the statements were written with, once they are read
+    LineTable lines() {
+        return lines;
+    }
+
+    private List<Stmt> readStatementList() {
+        int count = readInt();
+        List<Stmt> statements = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            statements.add(readStmt());
+        }
+        return statements;
+    }
+
+    private Stmt readStmt() {
+        int tag = in.get();
+        switch (tag) {
+            case AstWriter.NULL:
+                return null;
+            case AstWriter.EXPRESSION:
+                return new Stmt.Expression(readExpr());
+            case AstWriter.PRINT:
+                return new Stmt.Print(readExpr());
+            case AstWriter.VAR: {
+                int name = readName();
+                return new Stmt.Variable(name, readPosition(), readExpr());
+            }
+            case AstWriter.BLOCK:
+                return new Stmt.Block(readStatementList());
+            case AstWriter.IF: {
+                Expr condition = readExpr();
+                Stmt thenBranch = readStmt();
+                return new Stmt.If(condition, thenBranch, readStmt());
+            }
+            case AstWriter.WHILE: {
+                Expr condition = readExpr();
+                return new Stmt.While(condition, readStmt());
+            }
+            case AstWriter.FUNCTION:
+                return readFunction();
+            case AstWriter.RETURN: {
+                int position = readPosition();
+                return new Stmt.Return(position, readExpr());
+            }
+            case AstWriter.CLASS: {
+                int name = readName();
+                int position = readPosition();
+                Expr.Variable superclass = (Expr.Variable) readExpr();
+                int count = readInt();
+                List<Stmt.Function> methods = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    methods.add((Stmt.Function) readStmt());
+                }
+                return new Stmt.Class(name, position, superclass, methods);
+            }
+            case AstWriter.SWITCH:
+                return readSwitch();
+            case AstWriter.IMPORT: {
+                int position = readPosition();
+                return new Stmt.Import(position, (String) readConstant());
+            }
+            case AstWriter.YIELD: {
+                int position = readPosition();
+                return new Stmt.Yield(position, readExpr());
+            }
+            case AstWriter.FOR_IN: {
+                int name = readName();
+                int position = readPosition();
+                Expr iterable = readExpr();
+                return new Stmt.ForIn(name, position, iterable, readStmt());
+            }
+            default:
+                throw new IllegalStateException("Bad statement tag " + tag + ".");
+        }
+    }
+
+    // Function bodies are skipped here and decoded by LazyBody on first call
+    private Stmt.Function readFunction() {
+        int name = readName();
+        int position = readPosition();
+        LineTable table = readTable();
+        int[] params = new int[readInt()];
+        for (int i = 0; i < params.length; i++) {
+            params[i] = readName();
+        }
+        boolean generator = in.get() != 0;
+        int length = readInt();
+        int start = in.position();
+        in.position(start + length);
+        Stmt.Function function = new Stmt.Function(name, position, params, table, new LazyBody(this, start));
+        function.generator = generator;
+        return function;
+    }
+
+    // position is the function's, which the body's positions count from
+    List<Stmt> readBody(int start, int position) {
+        ByteBuffer body = in.duplicate();
+        body.position(start);
+        return new AstReader(body, this, position).readStatementList();
+    }
+
+    private Stmt.Switch readSwitch() {
+        int position = readPosition();
+        Expr subject = readExpr();
+        int count = readInt();
+        List<Stmt.Switch.Case> cases = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int casePosition = readPosition();
+            int labelCount = readInt();
+            List<Object> labels = new ArrayList<>(labelCount);
+            for (int j = 0; j < labelCount; j++) {
+                labels.add(readConstant());
+            }
+            cases.add(new Stmt.Switch.Case(casePosition, labels, readStatementList()));
+        }
+        List<Stmt> defaultBranch = readInt() == 0 ? null : readStatementList();
+        Stmt.Switch stmt = new Stmt.Switch(position, subject, cases, defaultBranch);
+        stmt.table = JumpTable.build(cases);
+        return stmt;
+    }
+
+    private Expr readExpr() {
+        int tag = in.get();
+        switch (tag) {
+            case AstWriter.NULL:
+                return null;
+            case AstWriter.BINARY: {
+                Expr left = readExpr();
+                TokenType operator = readOperator();
+                return new Expr.Binary(left, operator, readPosition(), readExpr());
+            }
+            case AstWriter.GROUPING:
+                return new Expr.Grouping(readExpr());
+            case AstWriter.LITERAL:
+                return new Expr.Literal(readConstant());
+            case AstWriter.UNARY: {
+                TokenType operator = readOperator();
+                return new Expr.Unary(operator, readPosition(), readExpr());
+            }
+            case AstWriter.VARIABLE: {
+                int name = readName();
+                Expr.Variable expr = new Expr.Variable(name, readPosition());
+                expr.depth = readDepth();
+                return expr;
+            }
+            case AstWriter.ASSIGN: {
+                int name = readName();
+                int position = readPosition();
+                Expr.Assign expr = new Expr.Assign(name, position, readExpr());
+                expr.depth = readDepth();
+                return expr;
+            }
+            case AstWriter.LOGICAL: {
+                Expr left = readExpr();
+                TokenType operator = readOperator();
+                return new Expr.Logical(left, operator, readExpr());
+            }
+            case AstWriter.CALL: {
+                Expr callee = readExpr();
+                int count = readInt();
+                List<Expr> arguments = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    arguments.add(readExpr());
+                }
+                return new Expr.Call(callee, arguments, readPosition());
+            }
+            case AstWriter.GET: {
+                Expr object = readExpr();
+                int name = readName();
+                return new Expr.Get(object, name, readPosition());
+            }
+            case AstWriter.SET: {
+                Expr object = readExpr();
+                int name = readName();
+                int position = readPosition();
+                return new Expr.Set(object, name, position, readExpr());
+            }
+            case AstWriter.THIS: {
+                Expr.This expr = new Expr.This(readPosition());
+                expr.depth = readDepth();
+                return expr;
+            }
+            case AstWriter.SUPER: {
+                int position = readPosition();
+                int method = readName();
+                Expr.Super expr = new Expr.Super(position, method, readPosition());
+                expr.depth = readDepth();
+                return expr;
+            }
+            default:
+                throw new IllegalStateException("Bad expression tag " + tag + ".");
+        }
+    }
+
+    private int readName() {
+        return names[readInt()];
+    }
+
+    private int readPosition() {
+        lastPosition += unzigzag(readInt());
+        return lastPosition;
+    }
+
+    private TokenType readOperator() {
+        return TYPES[readInt()];
+    }
+
+    private LineTable readTable() {
+        int index = readInt();
+        return index == 0 ? null : tables[index - 1];
+    }
+
+    private Object readConstant() {
+        int index = readInt();
+        return index == 0 ? null : constants[index - 1];
+    }
+
+    private int readDepth() {
+        return readInt() - 1;
+    }
+
+    private int readInt() {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Bad varint.");
+    }
+
+    private String readString() {
+        byte[] bytes = new byte[readInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
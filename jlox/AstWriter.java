@@ -0,0 +1,461 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Serializes a resolved AST into a compact binary form. Every node is a tag
+// byte followed by its fields. Names, literal values and line tables go into
+// pools and are referenced by index; source positions are stored as deltas
+// from the previous one, and resolver depths are kept so a reader can skip the
+// Resolver entirely.
+public class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    static final int NULL = 0;
+
+    static final int BINARY = 1;
+    static final int GROUPING = 2;
+    static final int LITERAL = 3;
+    static final int UNARY = 4;
+    static final int VARIABLE = 5;
+    static final int ASSIGN = 6;
+    static final int LOGICAL = 7;
+    static final int CALL = 8;
+    static final int GET = 9;
+    static final int SET = 10;
+    static final int THIS = 11;
+    static final int SUPER = 12;
+
+    static final int EXPRESSION = 20;
+    static final int PRINT = 21;
+    static final int VAR = 22;
+    static final int BLOCK = 23;
+    static final int IF = 24;
+    static final int WHILE = 25;
+    static final int FUNCTION = 26;
+    static final int RETURN = 27;
+    static final int CLASS = 28;
+    static final int SWITCH = 29;
+    static final int IMPORT = 30;
+    static final int YIELD = 31;
+    static final int FOR_IN = 32;
+
+    // Constant pool entry kinds
+    static final int CONSTANT_NIL = 0;
+    static final int CONSTANT_FALSE = 1;
+    static final int CONSTANT_TRUE = 2;
+    static final int CONSTANT_NUMBER = 3;
+    static final int CONSTANT_STRING = 4;
+
+    private ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final Map<String, Integer> nameIndex = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<LineTable, Integer> tableIndex = new IdentityHashMap<>();
+    private final List<LineTable> tables = new ArrayList<>();
+    private int lastPosition = 0;
+
+    // lines is the table of the source the statements came from, or null
+    // when they come from several, as a snapshot's do
+    void writeStatements(List<Stmt> statements, LineTable lines) {
+        writeTable(lines);
+        writeInt(statements.size());
+        for (Stmt statement : statements) {
+            write(statement);
+        }
+    }
+
+    // Pools first, then the node stream
+    byte[] toByteArray() {
+        ByteArrayOutputStream result = new ByteArrayOutputStream(body.size() + 1024);
+        writeInt(result, names.size());
+        for (String name : names) {
+            writeString(result, name);
+        }
+        writeInt(result, constants.size());
+        for (Object constant : constants) {
+            if (constant instanceof Boolean) {
+                result.write((Boolean) constant ? CONSTANT_TRUE : CONSTANT_FALSE);
+            } else if (constant instanceof Double) {
+                result.write(CONSTANT_NUMBER);
+                long bits = Double.doubleToRawLongBits((Double) constant);
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    result.write((int) (bits >>> shift));
+                }
+            } else {
+                result.write(CONSTANT_STRING);
+                writeString(result, (String) constant);
+            }
+        }
+        // Line starts only grow, so they are stored as deltas too
+        writeInt(result, tables.size());
+        for (LineTable table : tables) {
+            int[] starts = table.starts();
+            writeInt(result, starts.length);
+            int last = 0;
+            for (int start : starts) {
+                writeInt(result, start - last);
+                last = start;
+            }
+        }
+        byte[] nodes = body.toByteArray();
+        result.write(nodes, 0, nodes.length);
+        return result.toByteArray();
+    }
+
+    private void write(Stmt stmt) {
+        if (stmt == null) {
+            body.write(NULL);
+            return;
+        }
+        stmt.accept(this);
+    }
+
+    private void write(Expr expr) {
+        if (expr == null) {
+            body.write(NULL);
+            return;
+        }
+        expr.accept(this);
+    }
+
+    private void writeStatementList(List<Stmt> statements) {
+        writeInt(statements.size());
+        for (Stmt statement : statements) {
+            write(statement);
+        }
+    }
+
+    private void writePosition(int position) {
+        writeInt(zigzag(position - lastPosition));
+        lastPosition = position;
+    }
+
+    private void writeOperator(TokenType operator, int position) {
+        writeInt(operator.ordinal());
+        writePosition(position);
+    }
+
+    // A symbol id, written as its name since ids differ between runs
+    private void writeName(int name, int position) {
+        writeName(SymbolTable.name(name));
+        writePosition(position);
+    }
+
+    // 0 for none, otherwise the table's index plus one
+    private void writeTable(LineTable table) {
+        if (table == null) {
+            writeInt(0);
+            return;
+        }
+        Integer index = tableIndex.get(table);
+        if (index == null) {
+            index = tables.size();
+            tables.add(table);
+            tableIndex.put(table, index);
+        }
+        writeInt(index + 1);
+    }
+
+    private void writeName(String name) {
+        Integer index = nameIndex.get(name);
+        if (index == null) {
+            index = names.size();
+            names.add(name);
+            nameIndex.put(name, index);
+        }
+        writeInt(index);
+    }
+
+    private void writeConstant(Object value) {
+        if (value == null) {
+            writeInt(0);
+            return;
+        }
+        Integer index = constantIndex.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndex.put(value, index);
+        }
+        writeInt(index + 1); // 0 is nil
+    }
+
+    // Depths are -1 for globals, so shift them up by one
+    private void writeDepth(int depth) {
+        writeInt(depth + 1);
+    }
+
+    private void writeInt(int value) {
+        writeInt(body, value);
+    }
+
+    static void writeInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        writeInt(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        body.write(BINARY);
+        write(expr.left);
+        writeOperator(expr.operator, expr.position);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        body.write(GROUPING);
+        write(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        body.write(LITERAL);
+        writeConstant(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        body.write(UNARY);
+        writeOperator(expr.operator, expr.position);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        body.write(VARIABLE);
+        writeName(expr.name, expr.position);
+        writeDepth(expr.depth);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        body.write(ASSIGN);
+        writeName(expr.name, expr.position);
+        write(expr.value);
+        writeDepth(expr.depth);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        body.write(LOGICAL);
+        write(expr.left);
+        writeInt(expr.operator.ordinal());
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        body.write(CALL);
+        write(expr.callee);
+        writeInt(expr.arguments.size());
+        for (Expr argument : expr.arguments) {
+            write(argument);
+        }
+        writePosition(expr.paren);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        body.write(GET);
+        write(expr.object);
+        writeName(expr.name, expr.position);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        body.write(SET);
+        write(expr.object);
+        writeName(expr.name, expr.position);
+        write(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        body.write(THIS);
+        writePosition(expr.position);
+        writeDepth(expr.depth);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        body.write(SUPER);
+        writePosition(expr.position);
+        writeName(expr.method, expr.methodPosition);
+        writeDepth(expr.depth);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        body.write(EXPRESSION);
+        write(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        body.write(PRINT);
+        write(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableStmt(Stmt.Variable stmt) {
+        body.write(VAR);
+        writeName(stmt.name, stmt.position);
+        write(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        body.write(BLOCK);
+        writeStatementList(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        body.write(IF);
+        write(stmt.condition);
+        write(stmt.thenBranch);
+        write(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        body.write(WHILE);
+        write(stmt.condition);
+        write(stmt.body);
+        return null;
+    }
+
+    // Bodies are length-prefixed and count their positions from the
+    // function's, so a reader can skip them and decode each one on its first
+    // call. Lazy bodies are compiled first; a cached program never needs its
+    // source. Parameters share the function's position, as their errors do.
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        body.write(FUNCTION);
+        writeName(stmt.name, stmt.position);
+        writeTable(stmt.lines);
+        writeInt(stmt.params.length);
+        for (int param : stmt.params) {
+            writeName(SymbolTable.name(param));
+        }
+
+        // Whether it is a generator is only known once the body is resolved
+        List<Stmt> statements = stmt.body();
+        body.write(stmt.generator ? 1 : 0);
+
+        ByteArrayOutputStream enclosing = body;
+        int enclosingPosition = lastPosition;
+        body = new ByteArrayOutputStream();
+        lastPosition = stmt.position;
+        writeStatementList(statements);
+        byte[] nodes = body.toByteArray();
+        body = enclosing;
+        lastPosition = enclosingPosition;
+
+        writeInt(nodes.length);
+        body.write(nodes, 0, nodes.length);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        body.write(RETURN);
+        writePosition(stmt.position);
+        write(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        body.write(CLASS);
+        writeName(stmt.name, stmt.position);
+        write(stmt.superclass);
+        writeInt(stmt.methods.size());
+        for (Stmt.Function method : stmt.methods) {
+            write(method);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitSwitchStmt(Stmt.Switch stmt) {
+        body.write(SWITCH);
+        writePosition(stmt.position);
+        write(stmt.subject);
+        writeInt(stmt.cases.size());
+        for (Stmt.Switch.Case c : stmt.cases) {
+            writePosition(c.position);
+            writeInt(c.labels.size());
+            for (Object label : c.labels) {
+                writeConstant(label);
+            }
+            writeStatementList(c.body);
+        }
+        if (stmt.defaultBranch == null) {
+            writeInt(0);
+        } else {
+            writeInt(1);
+            writeStatementList(stmt.defaultBranch);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        body.write(IMPORT);
+        writePosition(stmt.position);
+        writeConstant(stmt.path);
+        return null;
+    }
+
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        body.write(YIELD);
+        writePosition(stmt.position);
+        write(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitForInStmt(Stmt.ForIn stmt) {
+        body.write(FOR_IN);
+        writeName(stmt.name, stmt.position);
+        write(stmt.iterable);
+        write(stmt.body);
+        return null;
+    }
+}
@@ -0,0 +1,304 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Scans UTF-8 source straight out of a (usually memory-mapped) byte buffer.
+// Unlike Scanner it never builds a Token or a substring while scanning: it
+// records offsets in a TokenBuffer, and lexemes are created on demand.
+public class ByteScanner implements TokenSource {
+    private final ByteBuffer source;
+    private final int end;
+    private final LineTable lines;
+    private final TokenBuffer tokens;
+    private boolean reachedEnd = false;
+    private int start = 0;
+    private int current = 0;
+    private int line = 1;
+
+    public ByteScanner(ByteBuffer source) {
+        this(source, 0, source.limit(), 1, new LineTable());
+    }
+
+    // Scans only source[start, end), as when re-reading a lazily parsed body,
+    // whose lines are already in lines
+    private ByteScanner(ByteBuffer source, int start, int end, int line, LineTable lines) {
+        this.source = source;
+        this.end = end;
+        this.current = start;
+        this.line = line;
+        this.lines = lines;
+        this.tokens = new TokenBuffer(this, lines);
+    }
+
+    public TokenBuffer scanTokens() {
+        while (scanNext()) {
+        }
+        return tokens;
+    }
+
+    // Tokens are scanned on demand as the parser reads the buffer
+    public TokenBuffer tokens() {
+        return tokens;
+    }
+
+    @Override
+    public boolean scanNext() {
+        if (reachedEnd) return false;
+        int scanned = tokens.size();
+        while (!isAtEnd()) {
+            start = current;
+            scanToken();
+            if (tokens.size() > scanned) return true;
+        }
+        tokens.add(TokenType.EOF, current, 0, line);
+        reachedEnd = true;
+        return true;
+    }
+
+    @Override
+    public TokenBuffer rescan(int start, int end, int line) {
+        return new ByteScanner(source, start, end, line, lines).tokens();
+    }
+
+    @Override
+    public String lexeme(int start, int length) {
+        return SymbolTable.intern(source, start, start + length);
+    }
+
+    // Not interned: the symbol table never lets go of an entry, and a server
+    // or batch run would keep every literal of every script it was sent
+    @Override
+    public String literal(int start, int length) {
+        byte[] utf8 = new byte[length];
+        source.get(start, utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private boolean isAtEnd() {
+        return current >= end;
+    }
+
+    private void scanToken() {
+        byte c = advance();
+        switch (c) {
+            case '(': addToken(TokenType.LEFT_PAREN); break;
+            case ')': addToken(TokenType.RIGHT_PAREN); break;
+            case '{': addToken(TokenType.LEFT_BRACE); break;
+            case '}': addToken(TokenType.RIGHT_BRACE); break;
+            case ',': addToken(TokenType.COMMA); break;
+            case '.': addToken(TokenType.DOT); break;
+            case '-': addToken(TokenType.MINUS); break;
+            case '+': addToken(TokenType.PLUS); break;
+            case ';': addToken(TokenType.SEMICOLON); break;
+            case '*': addToken(TokenType.STAR); break;
+            case ':': addToken(TokenType.COLON); break;
+            case '/':
+                if (match('/')) {
+                    // Single-line comment
+                    while (peek() != '\n' && !isAtEnd()) advance();
+                } else if (match('*')) {
+                    // Multi-line comment
+                    while (!isAtEnd()) {
+                        if (peek() == '*' && peekNext() == '/') {
+                            advance(); // consume '*'
+                            advance(); // consume '/'
+                            break;
+                        }
+                        if (peek() == '\n') newline(current + 1);
+                        advance();
+                    }
+                } else {
+                    addToken(TokenType.SLASH);
+                }
+                break;
+            case '!':
+                addToken(match('=') ? TokenType.BANG_EQUAL : TokenType.BANG);
+                break;
+            case '=':
+                addToken(match('=') ? TokenType.EQUAL_EQUAL : TokenType.EQUAL);
+                break;
+            case '>':
+                addToken(match('=') ? TokenType.GREATER_EQUAL : TokenType.GREATER);
+                break;
+            case '<':
+                addToken(match('=') ? TokenType.LESS_EQUAL : TokenType.LESS);
+                break;
+            case '"': string(); break;
+            case ' ':
+            case '\r':
+            case '\t':
+                // Ignore whitespace
+                break;
+            case '\n':
+                newline(current);
+                break;
+
+            default:
+                if (isDigit(c)) {
+                    number();
+                    break;
+                }
+                if (isAlpha(c)) {
+                    identifier();
+                    break;
+                }
+                Lox.error(line, "Unexpected character: '" + unexpected(c) + "'");
+                break;
+        }
+    }
+
+    // Reports a non-ASCII character as the code point it encodes, not its first byte
+    private String unexpected(byte c) {
+        int length = 1;
+        if ((c & 0xE0) == 0xC0) length = 2;
+        else if ((c & 0xF0) == 0xE0) length = 3;
+        else if ((c & 0xF8) == 0xF0) length = 4;
+        length = Math.min(length, end - start);
+        current = start + length;
+
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = source.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private byte advance() {
+        return source.get(current++);
+    }
+
+    // start is the offset just past the newline
+    private void newline(int start) {
+        line++;
+        lines.add(start);
+    }
+
+    private void addToken(TokenType type) {
+        tokens.add(type, start, current - start, line);
+    }
+
+    private boolean match(char expected) {
+        if (isAtEnd()) return false;
+        if (source.get(current) != expected) return false;
+        current++;
+        return true;
+    }
+
+    private byte peek() {
+        if (isAtEnd()) return '\0';
+        return source.get(current);
+    }
+
+    private byte peekNext() {
+        if (current + 1 >= end) return '\0';
+        return source.get(current + 1);
+    }
+
+    private boolean isDigit(byte c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private boolean isAlpha(byte c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private boolean isAlphaNumeric(byte c) {
+        return isAlpha(c) || isDigit(c);
+    }
+
+    private void string() {
+        while (peek() != '"' && !isAtEnd()) {
+            if (peek() == '\n') newline(current + 1);
+            advance();
+        }
+        // Unterminated string
+        if (isAtEnd()) {
+            Lox.error(line, "Unterminated string.");
+            return;
+        }
+        // The closing quote
+        advance();
+        addToken(TokenType.STRING);
+    }
+
+    private void number() {
+        while (isDigit(peek())) advance();
+        // Look for a fractional part
+        if (peek() == '.' && isDigit(peekNext())) {
+            advance(); // consume '.'
+            while (isDigit(peek())) advance();
+        }
+        addToken(TokenType.NUMBER);
+    }
+
+    private void identifier() {
+        while (isAlphaNumeric(peek())) advance();
+        addToken(keyword());
+    }
+
+    // Keywords are matched on their bytes, so identifiers never need a String here
+    private TokenType keyword() {
+        switch (source.get(start)) {
+            case 'a': return checkKeyword(1, "nd", TokenType.AND);
+            case 'c':
+                if (current - start > 1) {
+                    switch (source.get(start + 1)) {
+                        case 'a': return checkKeyword(2, "se", TokenType.CASE);
+                        case 'l': return checkKeyword(2, "ass", TokenType.CLASS);
+                    }
+                }
+                break;
+            case 'd': return checkKeyword(1, "efault", TokenType.DEFAULT);
+            case 'e': return checkKeyword(1, "lse", TokenType.ELSE);
+            case 'f':
+                if (current - start > 1) {
+                    switch (source.get(start + 1)) {
+                        case 'a': return checkKeyword(2, "lse", TokenType.FALSE);
+                        case 'o': return checkKeyword(2, "r", TokenType.FOR);
+                        case 'u': return checkKeyword(2, "n", TokenType.FUN);
+                    }
+                }
+                break;
+            case 'i':
+                if (current - start > 1) {
+                    switch (source.get(start + 1)) {
+                        case 'f': return checkKeyword(2, "", TokenType.IF);
+                        case 'm': return checkKeyword(2, "port", TokenType.IMPORT);
+                        case 'n': return checkKeyword(2, "", TokenType.IN);
+                    }
+                }
+                break;
+            case 'n': return checkKeyword(1, "il", TokenType.NIL);
+            case 'o': return checkKeyword(1, "r", TokenType.OR);
+            case 'p': return checkKeyword(1, "rint", TokenType.PRINT);
+            case 'r': return checkKeyword(1, "eturn", TokenType.RETURN);
+            case 's':
+                if (current - start > 1) {
+                    switch (source.get(start + 1)) {
+                        case 'u': return checkKeyword(2, "per", TokenType.SUPER);
+                        case 'w': return checkKeyword(2, "itch", TokenType.SWITCH);
+                    }
+                }
+                break;
+            case 't':
+                if (current - start > 1) {
+                    switch (source.get(start + 1)) {
+                        case 'h': return checkKeyword(2, "is", TokenType.THIS);
+                        case 'r': return checkKeyword(2, "ue", TokenType.TRUE);
+                    }
+                }
+                break;
+            case 'v': return checkKeyword(1, "ar", TokenType.VAR);
+            case 'w': return checkKeyword(1, "hile", TokenType.WHILE);
+            case 'y': return checkKeyword(1, "ield", TokenType.YIELD);
+        }
+        return TokenType.IDENTIFIER;
+    }
+
+    private TokenType checkKeyword(int offset, String rest, TokenType type) {
+        if (current - start != offset + rest.length()) return TokenType.IDENTIFIER;
+        for (int i = 0; i < rest.length(); i++) {
+            if (source.get(start + offset + i) != rest.charAt(i)) return TokenType.IDENTIFIER;
+        }
+        return type;
+    }
+}
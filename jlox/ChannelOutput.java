@@ -0,0 +1,101 @@
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+// Buffers printed text and writes it to a channel in large chunks. The buffer
+// is flushed when it fills up, when a line ends after it has been holding
+// output for too long, and whenever the owner calls flush().
+public class ChannelOutput implements OutputSink {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long MAX_DELAY_NANOS = 100_000_000L;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final WritableByteChannel channel;
+    private final CharsetEncoder encoder;
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+    private long lastFlush = System.nanoTime();
+
+    public ChannelOutput(WritableByteChannel channel, Charset charset) {
+        this.channel = channel;
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    public static ChannelOutput stdout() {
+        return new ChannelOutput(new FileOutputStream(FileDescriptor.out).getChannel(),
+                Charset.defaultCharset());
+    }
+
+    @Override
+    public synchronized void write(CharSequence text) {
+        String string = text.toString();
+        int offset = 0;
+        while (offset < string.length()) {
+            if (!chars.hasRemaining()) {
+                encode();
+            }
+            int count = Math.min(chars.remaining(), string.length() - offset);
+            chars.put(string, offset, offset + count);
+            offset += count;
+        }
+    }
+
+    @Override
+    public synchronized void write(char[] text, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            if (!chars.hasRemaining()) {
+                encode();
+            }
+            int count = Math.min(chars.remaining(), end - offset);
+            chars.put(text, offset, count);
+            offset += count;
+        }
+    }
+
+    @Override
+    public synchronized void newline() {
+        write(LINE_SEPARATOR);
+        if (System.nanoTime() - lastFlush > MAX_DELAY_NANOS) {
+            flush();
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        encode();
+        drain();
+        lastFlush = System.nanoTime();
+    }
+
+    // Moves buffered chars into the byte buffer, writing bytes out as it fills
+    private void encode() {
+        chars.flip();
+        while (encoder.encode(chars, bytes, false).isOverflow()) {
+            drain();
+        }
+        chars.compact();
+    }
+
+    private void drain() {
+        bytes.flip();
+        try {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            bytes.clear();
+        }
+    }
+}
@@ -1,9 +1,31 @@
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 
 public class Enviroment {
     final Enviroment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    // Tells a Fork whether this environment predates it
+    final int epoch = Fork.currentEpoch();
+    // Names are interned by the SymbolTable, so identity lookups are enough
+    private final Map<String, Object> values = new IdentityHashMap<>(8);
+
+    // Global variables live in cells indexed by the symbol id of their name,
+    // which a variable expression already holds, so it never hashes the name.
+    // Volatile so that a task on another thread finds globals defined after it
+    // started. Values in the cells are plain fields: as with Java fields, a
+    // task sees another's assignment once the two have synchronized through
+    // spawn, join or a channel.
+    private volatile Cell[] cells = new Cell[0];
+
+    static final class Cell {
+        Object value;
+
+        Cell(Object value) {
+            this.value = value;
+        }
+    }
 
     // For the global environment
     Enviroment() {
@@ -16,9 +38,104 @@ public class Enviroment {
     }
 
     void define(String name, Object value) {
+        if (enclosing == null) {
+            defineGlobal(SymbolTable.id(name), value);
+            return;
+        }
         values.put(name, value);
     }
 
+    // name is a symbol id
+    void define(int name, Object value) {
+        if (enclosing == null) {
+            defineGlobal(name, value);
+            return;
+        }
+        values.put(SymbolTable.name(name), value);
+    }
+
+    // Redefining a global reuses its cell. A grown array is filled before it
+    // is published.
+    private synchronized void defineGlobal(int slot, Object value) {
+        Cell[] cells = this.cells;
+        if (slot >= cells.length) {
+            cells = Arrays.copyOf(cells, Math.max(slot + 1, cells.length * 2));
+        }
+        if (cells[slot] == null) {
+            cells[slot] = new Cell(value);
+        } else {
+            cells[slot].value = value;
+        }
+        this.cells = cells;
+    }
+
+    // Returns the cell for a global, or null if it has not been defined yet
+    Cell cellAt(int slot) {
+        Cell[] cells = this.cells;
+        return slot < cells.length ? cells[slot] : null;
+    }
+
+    // position is where the variable is used, for the error if it is undefined
+    Object getGlobal(int slot, int position) {
+        Cell cell = cellAt(slot);
+        if (cell == null) {
+            throw new RuntimeError(position, "Undefined variable '" + SymbolTable.name(slot) + "'.");
+        }
+        return cell.value;
+    }
+
+    void assignGlobal(int slot, int position, Object value) {
+        Cell cell = cellAt(slot);
+        if (cell == null) {
+            throw new RuntimeError(position, "Undefined variable '" + SymbolTable.name(slot) + "'.");
+        }
+        cell.value = value;
+    }
+
+    // The global environment this one is nested in
+    Enviroment root() {
+        Enviroment env = this;
+        while (env.enclosing != null) {
+            env = env.enclosing;
+        }
+        return env;
+    }
+
+    // Defines the named globals of a module in this global environment. A name
+    // already defined here as something else is a conflict: it is returned
+    // and nothing is defined. Importing the same module again is not one.
+    String importGlobals(Enviroment module, List<String> names) {
+        for (String name : names) {
+            Cell existing = cellAt(SymbolTable.id(name));
+            Cell cell = module.cellAt(SymbolTable.id(name));
+            if (existing != null && (cell == null || existing.value != cell.value)) {
+                return name;
+            }
+        }
+        for (String name : names) {
+            Cell cell = module.cellAt(SymbolTable.id(name));
+            if (cell != null) {
+                defineGlobal(SymbolTable.id(name), cell.value);
+            }
+        }
+        return null;
+    }
+
+    // A copy for a fork to write to; globals get cells of their own
+    Enviroment copy() {
+        Enviroment copy = new Enviroment(enclosing);
+        copy.values.putAll(values);
+        Cell[] cells = this.cells;
+        Cell[] copied = new Cell[cells.length];
+        for (int slot = 0; slot < cells.length; slot++) {
+            if (cells[slot] != null) {
+                copied[slot] = new Cell(cells[slot].value);
+            }
+        }
+        copy.cells = copied;
+        return copy;
+    }
+
     Enviroment ancestor(int distance) {
         Enviroment env = this;
         for (int i = 0; i < distance; i++) {
@@ -27,36 +144,49 @@ public class Enviroment {
         return env;
     }
 
-    Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
+    // name is a symbol id, and position where it is used
+    Object get(int name, int position) {
+        if (enclosing == null) {
+            return getGlobal(name, position);
         }
 
-        if (enclosing != null) {
-            return enclosing.get(name);
+        Object value = values.get(SymbolTable.name(name));
+        if (value != null || values.containsKey(SymbolTable.name(name))) {
+            return value;
         }
-
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        return enclosing.get(name, position);
     }
 
-    void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
+    void assign(int name, int position, Object value) {
+        if (enclosing == null) {
+            assignGlobal(name, position, value);
             return;
         }
-        if (enclosing != null) {
-            enclosing.assign(name, value);
+        if (values.containsKey(SymbolTable.name(name))) {
+            values.put(SymbolTable.name(name), value);
             return;
         }
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        enclosing.assign(name, position, value);
     }
 
     Object getAt(int distance, String name) {
         return ancestor(distance).values.get(name);
     }
 
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+    void assignAt(int distance, String name, Object value) {
+        ancestor(distance).values.put(name, value);
+    }
+
+    // Every global defined here, by name
+    Map<String, Object> getGlobals() {
+        Map<String, Object> globals = new HashMap<>();
+        Cell[] cells = this.cells;
+        for (int slot = 0; slot < cells.length; slot++) {
+            if (cells[slot] != null) {
+                globals.put(SymbolTable.name(slot), cells[slot].value);
+            }
+        }
+        return globals;
     }
 
     public Map<String, Object> getValues() {
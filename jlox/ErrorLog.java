@@ -0,0 +1,70 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Holds back compile errors instead of printing them. While a log is open on
+// a thread, Lox.error records into it; this is how front-end work running on
+// several threads keeps its errors in source order. Each task opens its own
+// log, the logs are merged, and Lox prints the merged log sorted by line.
+public class ErrorLog {
+    private static final ThreadLocal<ErrorLog> current = new ThreadLocal<>();
+
+    static final class Entry {
+        final int line;
+        final String where;
+        final String message;
+
+        Entry(int line, String where, String message) {
+            this.line = line;
+            this.where = where;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return format(line, where, message);
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+    private ErrorLog enclosing;
+
+    static String format(int line, String where, String message) {
+        return "[line " + line + "] Error" + where + ": " + message;
+    }
+
+    // Starts recording this thread's errors; close() stops it
+    static ErrorLog open() {
+        ErrorLog log = new ErrorLog();
+        log.enclosing = current.get();
+        current.set(log);
+        return log;
+    }
+
+    void close() {
+        current.set(enclosing);
+        enclosing = null;
+    }
+
+    // Returns false when no log is open and the error should be printed now
+    static boolean record(int line, String where, String message) {
+        ErrorLog log = current.get();
+        if (log == null) return false;
+        log.entries.add(new Entry(line, where, message));
+        return true;
+    }
+
+    void addAll(ErrorLog other) {
+        entries.addAll(other.entries);
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    // Stable, so errors on the same line keep the order they were found in
+    List<Entry> sorted() {
+        List<Entry> sorted = new ArrayList<>(entries);
+        sorted.sort((a, b) -> Integer.compare(a.line, b.line));
+        return sorted;
+    }
+}
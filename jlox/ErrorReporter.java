@@ -0,0 +1,9 @@
+// Where an interpreter sends errors. The command line prints them to stderr
+// and turns them into its exit code; an embedded execution keeps them with
+// its own results, so concurrent runs never share error state.
+public interface ErrorReporter {
+    // Compile errors of an imported module
+    void compileErrors(ErrorLog errors);
+
+    void runtimeError(RuntimeError error);
+}
@@ -0,0 +1,200 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Timers and asynchronous reads for callback-style scripts. Natives only
+// schedule work here; once the script's top level has run, the interpreter
+// runs the loop, which calls each callback on the interpreter's own thread
+// as its timer comes due or its read completes, until nothing is left
+// pending. Lox code never runs on two threads, so environments stay as they
+// are. Callbacks due at the same time run in the order they were scheduled.
+//
+// Regular files are read through AsynchronousFileChannel. Pipes and devices
+// can't be read at a position, so they are read on a helper thread instead.
+// Either way the result is queued for the loop thread, which waits on that
+// queue for as long as the next timer allows.
+public class EventLoop {
+    private static final ExecutorService pipeReaders = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "lox-pipe-reader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final class Timer {
+        final int id;
+        final LoxCallable callback;
+        // Zero for a one-shot timer
+        final long interval;
+        long due;
+        long sequence;
+        boolean cancelled = false;
+
+        Timer(int id, LoxCallable callback, long interval) {
+            this.id = id;
+            this.callback = callback;
+            this.interval = interval;
+        }
+    }
+
+    private final Interpreter interpreter;
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>((a, b) ->
+            a.due != b.due ? Long.compare(a.due, b.due) : Long.compare(a.sequence, b.sequence));
+    private final Map<Integer, Timer> active = new HashMap<>();
+    // Callbacks of finished reads, queued by whichever thread finished them
+    private final BlockingQueue<Runnable> completions = new LinkedBlockingQueue<>();
+    private int reading = 0;
+    private int nextId = 1;
+    private long sequence = 0;
+
+    EventLoop(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    // Returns the id clearTimer takes. An interval timer first fires one interval from now.
+    int setTimer(LoxCallable callback, double milliseconds, boolean repeat) {
+        long nanos = (long) (milliseconds * 1_000_000);
+        // Like browsers, an interval of zero is taken as the shortest one that still lets the loop turn
+        Timer timer = new Timer(nextId++, callback, repeat ? Math.max(nanos, 1_000_000) : 0);
+        schedule(timer, System.nanoTime() + nanos);
+        active.put(timer.id, timer);
+        return timer.id;
+    }
+
+    // Unknown and already finished timers are ignored
+    void clearTimer(int id) {
+        Timer timer = active.remove(id);
+        if (timer != null) {
+            timer.cancelled = true;
+        }
+    }
+
+    // Calls callback with the file's contents, or with nil if it can't be read
+    void readFile(Path path, LoxCallable callback) {
+        reading++;
+        if (!Files.isRegularFile(path)) {
+            pipeReaders.execute(() -> {
+                String contents;
+                try {
+                    contents = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+                } catch (IOException e) {
+                    contents = null;
+                }
+                complete(callback, contents);
+            });
+            return;
+        }
+
+        AsynchronousFileChannel channel;
+        try {
+            channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+        } catch (IOException e) {
+            complete(callback, null);
+            return;
+        }
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                close(channel);
+                complete(callback, null);
+                return;
+            }
+            read(channel, ByteBuffer.allocate((int) size), callback);
+        } catch (IOException e) {
+            close(channel);
+            complete(callback, null);
+        }
+    }
+
+    // Reads until the buffer is full or the file ends, which it may if it shrank
+    private void read(AsynchronousFileChannel channel, ByteBuffer buffer, LoxCallable callback) {
+        channel.read(buffer, buffer.position(), null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer count, Void attachment) {
+                if (count >= 0 && buffer.hasRemaining()) {
+                    read(channel, buffer, callback);
+                    return;
+                }
+                close(channel);
+                buffer.flip();
+                complete(callback, StandardCharsets.UTF_8.decode(buffer).toString());
+            }
+
+            @Override
+            public void failed(Throwable error, Void attachment) {
+                close(channel);
+                complete(callback, null);
+            }
+        });
+    }
+
+    private static void close(AsynchronousFileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Everything was read; a failed close loses nothing
+        }
+    }
+
+    private void complete(LoxCallable callback, String contents) {
+        completions.add(() -> {
+            reading--;
+            callback.call1(interpreter, contents);
+        });
+    }
+
+    private void schedule(Timer timer, long due) {
+        timer.due = due;
+        timer.sequence = sequence++;
+        timers.add(timer);
+    }
+
+    // Runs callbacks until no timer or read is left. A runtime error in a
+    // callback stops the loop and is thrown from here.
+    void run() throws InterruptedException {
+        for (;;) {
+            Runnable completion;
+            while ((completion = completions.poll()) != null) {
+                completion.run();
+            }
+
+            Timer next = timers.peek();
+            while (next != null && next.cancelled) {
+                timers.poll();
+                next = timers.peek();
+            }
+            if (next == null && reading == 0) return;
+
+            // Wakes up for the script's time limit too, if it has one
+            long wait = Math.min(next == null ? Long.MAX_VALUE : next.due - System.nanoTime(), interpreter.timeLeft());
+            if (wait > 0) {
+                completion = wait == Long.MAX_VALUE ? completions.take() : completions.poll(wait, TimeUnit.NANOSECONDS);
+                if (completion != null) {
+                    completion.run();
+                }
+                continue;
+            }
+
+            timers.poll();
+            if (next.interval > 0) {
+                // Keeps to its beat, but one that fell behind doesn't fire again and again to catch up
+                schedule(next, Math.max(next.due + next.interval, System.nanoTime()));
+            } else {
+                active.remove(next.id);
+            }
+            next.callback.call0(interpreter);
+        }
+    }
+}
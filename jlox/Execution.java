@@ -0,0 +1,43 @@
+// One run of a Program: its output, the errors it reported and the status
+// the command line would have exited with (0, 65 for compile errors, 70 for
+// a runtime error). Each execution has its own Interpreter, so executions of
+// the same program share nothing mutable.
+public class Execution implements ErrorReporter {
+    private final OutputSink output;
+    private final MemoryOutput errors = new MemoryOutput();
+    private int status = 0;
+
+    Execution(OutputSink output) {
+        this.output = output;
+    }
+
+    @Override
+    public void compileErrors(ErrorLog log) {
+        for (ErrorLog.Entry entry : log.sorted()) {
+            errors.write(entry.toString());
+            errors.newline();
+        }
+        status = 65;
+    }
+
+    @Override
+    public void runtimeError(RuntimeError error) {
+        errors.write(error.report());
+        errors.newline();
+        if (status == 0) {
+            status = 70;
+        }
+    }
+
+    public OutputSink getOutput() {
+        return output;
+    }
+
+    public String getErrors() {
+        return errors.contents();
+    }
+
+    public int getStatus() {
+        return status;
+    }
+}
@@ -1,5 +1,9 @@
 import java.util.List;
 
+// Nodes keep no Tokens. A name is its symbol id, and a node that can fail
+// at runtime keeps the source offset of the token its error points at, which
+// the program's LineTable turns into a line. The constructors taking Tokens
+// are for the parser; the others rebuild nodes from a cached program.
 public abstract class Expr {
     interface Visitor<R> {
         R visitBinaryExpr(Binary expr);
@@ -29,12 +33,18 @@ public abstract class Expr {
 
     static class Binary extends Expr {
         final Expr left;
-        final Token operator;
+        final TokenType operator;
+        final int position;
         final Expr right;
 
         Binary(Expr left, Token operator, Expr right) {
+            this(left, operator.type, operator.offset, right);
+        }
+
+        Binary(Expr left, TokenType operator, int position, Expr right) {
             this.left = left;
             this.operator = operator;
+            this.position = position;
             this.right = right;
         }
 
@@ -71,11 +81,17 @@ public abstract class Expr {
     }
 
     static class Unary extends Expr {
-        final Token operator;
+        final TokenType operator;
+        final int position;
         final Expr right;
 
         Unary(Token operator, Expr right) {
+            this(operator.type, operator.offset, right);
+        }
+
+        Unary(TokenType operator, int position, Expr right) {
             this.operator = operator;
+            this.position = position;
             this.right = right;
         }
 
@@ -86,10 +102,19 @@ public abstract class Expr {
     }
 
     static class Variable extends Expr {
-        final Token name;
+        // Symbol id, which is also the slot of a global
+        final int name;
+        final int position;
+        // Scope distance set by the Resolver; -1 means global
+        int depth = -1;
 
         Variable(Token name) {
+            this(SymbolTable.id(name.lexeme), name.offset);
+        }
+
+        Variable(int name, int position) {
             this.name = name;
+            this.position = position;
         }
 
         @Override
@@ -99,11 +124,16 @@ public abstract class Expr {
     }
 
     static class Assign extends Expr {
-        final Token name;
+        // Symbol id, which is also the slot of a global
+        final int name;
+        final int position;
+        // Scope distance set by the Resolver; -1 means global
+        int depth = -1;
         final Expr value;
 
-        Assign(Token name, Expr value) {
+        Assign(int name, int position, Expr value) {
             this.name = name;
+            this.position = position;
             this.value = value;
         }
 
@@ -115,10 +145,10 @@ public abstract class Expr {
 
     static class Logical extends Expr {
         final Expr left;
-        final Token operator;
+        final TokenType operator;
         final Expr right;
 
-        Logical(Expr left, Token operator, Expr right) {
+        Logical(Expr left, TokenType operator, Expr right) {
             this.left = left;
             this.operator = operator;
             this.right = right;
@@ -132,10 +162,15 @@ public abstract class Expr {
 
     static class Call extends Expr {
         final Expr callee;
-        final Token paren;
+        // Offset of the closing parenthesis
+        final int paren;
         final List<Expr> arguments;
 
         Call(Expr callee, List<Expr> arguments , Token paren) {
+            this(callee, arguments, paren.offset);
+        }
+
+        Call(Expr callee, List<Expr> arguments, int paren) {
             this.callee = callee;
             this.arguments = arguments;
             this.paren = paren;
@@ -149,11 +184,17 @@ public abstract class Expr {
 
     static class Get extends Expr {
         final Expr object;
-        final Token name;
+        final int name;
+        final int position;
 
         Get(Expr object, Token name) {
+            this(object, SymbolTable.id(name.lexeme), name.offset);
+        }
+
+        Get(Expr object, int name, int position) {
             this.object = object;
             this.name = name;
+            this.position = position;
         }
 
         @Override
@@ -164,12 +205,14 @@ public abstract class Expr {
 
     static class Set extends Expr {
         final Expr object;
-        final Token name;
+        final int name;
+        final int position;
         final Expr value;
 
-        Set(Expr object, Token name, Expr value) {
+        Set(Expr object, int name, int position, Expr value) {
             this.object = object;
             this.name = name;
+            this.position = position;
             this.value = value;
         }
 
@@ -180,10 +223,12 @@ public abstract class Expr {
     }
 
     static class This extends Expr {
-        final Token keyword;
+        final int position;
+        // Scope distance set by the Resolver; -1 means global
+        int depth = -1;
 
-        This(Token keyword) {
-            this.keyword = keyword;
+        This(int position) {
+            this.position = position;
         }
 
         @Override
@@ -193,12 +238,20 @@ public abstract class Expr {
     }
 
     static class Super extends Expr {
-        final Token keyword;
-        final Token method;
+        final int position;
+        // Scope distance set by the Resolver; -1 means global
+        int depth = -1;
+        final int method;
+        final int methodPosition;
 
         Super(Token keyword, Token method) {
-            this.keyword = keyword;
+            this(keyword.offset, SymbolTable.id(method.lexeme), method.offset);
+        }
+
+        Super(int position, int method, int methodPosition) {
+            this.position = position;
             this.method = method;
+            this.methodPosition = methodPosition;
         }
 
         @Override
@@ -0,0 +1,115 @@
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// One child of Interpreter.fork. Every environment and instance that existed
+// when the parent forked is shared by all of its children and never written
+// while they run. A child that writes one gets a private copy first, and
+// from then on reads and writes go to the copy. Anything made after the fork
+// was made by this child, so it is private already and used as is.
+//
+// Whether an object is shared is told by the epoch it was made in, so a fork
+// costs nothing up front and each child pays only for the state it changes.
+// Instances and lists keep their identity: a child copies an instance's
+// fields or a list's elements, and looks the copy up by the original, so
+// references to either still compare equal.
+public class Fork {
+    private static final AtomicInteger epochs = new AtomicInteger();
+
+    // Objects made before this epoch are shared with the parent
+    final int epoch;
+    final int index;
+    private final Map<Enviroment, Enviroment> environments = new IdentityHashMap<>();
+    private final Map<LoxInstance, Map<String, Object>> fields = new IdentityHashMap<>();
+    private final Map<LoxList, LoxList> lists = new IdentityHashMap<>();
+    private final MemoryOutput output = new MemoryOutput();
+    private Object value;
+    private RuntimeError error;
+
+    Fork(int epoch, int index) {
+        this.epoch = epoch;
+        this.index = index;
+    }
+
+    // The epoch objects made now belong to
+    static int currentEpoch() {
+        return epochs.get();
+    }
+
+    // Starts an epoch, so that everything made so far counts as shared
+    static int nextEpoch() {
+        return epochs.incrementAndGet();
+    }
+
+    void run(Interpreter interpreter, LoxCallable scenario) {
+        try {
+            value = scenario.call1(interpreter, (double) index);
+        } catch (RuntimeError e) {
+            error = e;
+        }
+    }
+
+    Enviroment read(Enviroment environment) {
+        if (environment.epoch >= epoch) return environment;
+        Enviroment copy = environments.get(environment);
+        return copy != null ? copy : environment;
+    }
+
+    Enviroment write(Enviroment environment) {
+        if (environment.epoch >= epoch) return environment;
+        Enviroment copy = environments.get(environment);
+        if (copy == null) {
+            copy = environment.copy();
+            environments.put(environment, copy);
+        }
+        return copy;
+    }
+
+    LoxList read(LoxList list) {
+        if (list.epoch >= epoch) return list;
+        LoxList copy = lists.get(list);
+        return copy != null ? copy : list;
+    }
+
+    LoxList write(LoxList list) {
+        if (list.epoch >= epoch) return list;
+        return lists.computeIfAbsent(list, LoxList::copy);
+    }
+
+    Object get(LoxInstance instance, String name, int position) {
+        if (instance.epoch >= epoch) return instance.get(name, position);
+        Map<String, Object> copy = fields.get(instance);
+        return instance.get(name, position, copy != null ? copy : instance.getFields());
+    }
+
+    void set(LoxInstance instance, String name, Object value) {
+        if (instance.epoch >= epoch) {
+            instance.set(name, value);
+            return;
+        }
+        fields.computeIfAbsent(instance, shared -> new IdentityHashMap<>(shared.getFields()))
+                .put(name, value);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    // What the scenario returned, or null if it failed
+    public Object getValue() {
+        return value;
+    }
+
+    // The runtime error that stopped the scenario, if any
+    public RuntimeError getError() {
+        return error;
+    }
+
+    MemoryOutput output() {
+        return output;
+    }
+
+    public String getOutput() {
+        return output.contents();
+    }
+}
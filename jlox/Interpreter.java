@@ -1,58 +1,297 @@
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
-
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs on one thread. A spawned task gets an interpreter of its own that
+// shares this one's globals and modules but keeps its own place in them.
 public class Interpreter implements Expr.Visitor<Object>, 
                                     Stmt.Visitor<Void> {
     
-    final Enviroment globals = new Enviroment();
+    // Globals of the module that is running; LoxFunction switches them on call
+    Enviroment globals = new Enviroment();
     private Enviroment enviroment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
-
+    private final NumberFormatter numbers = new NumberFormatter();
+    private final OutputSink output;
+    private final ErrorReporter reporter;
+    // This interpreter's instance of each imported module, by absolute path
+    private final Map<Path, Imported> modules = new HashMap<>();
+    // Modules whose top level is running, to catch import cycles
+    private final Set<Path> loading = new HashSet<>();
+    // Imports are relative to the directory of the running script or module
+    private Path directory = Paths.get("");
+    // Set in the children of a fork, which must not write shared state
+    private final Fork fork;
+    // Set in parallel workers: environments and instances made before this
+    // epoch are shared with the other workers, which may only read them
+    private int readOnlyBefore = 0;
+    // Spawned tasks still running, shared by every interpreter spawned from the same one
+    private final AtomicInteger tasks;
+    // Timers and reads to run after the top level; only the main interpreter has them
+    private final EventLoop events;
+    // The System.nanoTime() past which the script is stopped, or 0 for no limit.
+    // Loops and calls check it every CHECK_INTERVAL passes.
+    private long deadline = 0;
+    private int untilCheck = CHECK_INTERVAL;
+    private static final int CHECK_INTERVAL = 4096;
+    // Set in the interpreter that runs a generator's body, which its yields hand values to
+    private LoxGenerator.Producer generator;
+
+
+    public Interpreter(OutputSink output, ErrorReporter reporter) {
+        this.output = output;
+        this.reporter = reporter;
+        this.fork = null;
+        this.tasks = new AtomicInteger();
+        this.events = new EventLoop(this);
+        Natives.define(globals);
+    }
+
+    // A spawned task, a child of a fork or a generator's body, starting where the parent is
+    private Interpreter(Interpreter parent, OutputSink output, Fork fork, EventLoop events) {
+        this.output = output;
+        this.reporter = parent.reporter;
+        this.fork = fork;
+        this.tasks = parent.tasks;
+        this.events = events;
+        this.globals = parent.globals;
+        this.enviroment = parent.enviroment;
+        this.directory = parent.directory;
+        this.deadline = parent.deadline;
+        this.readOnlyBefore = parent.readOnlyBefore;
+        modules.putAll(parent.modules);
+        loading.addAll(parent.loading);
+    }
+
+    // Runs scenario(i) for every i below count, each in a child interpreter
+    // on its own thread. Children start from this interpreter's state and
+    // share it copy-on-write, so none sees another's changes and this one
+    // sees none of theirs. Blocks until all are done.
+    public List<Fork> fork(int count, LoxCallable scenario) {
+        if (fork != null) {
+            throw new RuntimeError("Cannot fork inside a fork.");
+        }
+        if (tasks.get() > 0) {
+            throw new RuntimeError("Cannot fork while spawned tasks are running.");
+        }
+        output.flush();
+        int epoch = Fork.nextEpoch();
+        List<Fork> children = new ArrayList<>(count);
+        List<Callable<Void>> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Fork child = new Fork(epoch, i);
+            Interpreter interpreter = new Interpreter(this, child.output(), child, null);
+            children.add(child);
+            tasks.add(() -> {
+                child.run(interpreter, scenario);
+                return null;
+            });
+        }
 
-    public Interpreter() {
-        globals.define("clock", new LoxCallable() {
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                System.out.println("clock called" );
-                return (double) System.currentTimeMillis() / 1000.0; // Return current time in seconds
+        int threads = Math.max(1, Math.min(count, Runtime.getRuntime().availableProcessors()));
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+            for (Future<Void> task : workers.invokeAll(tasks)) {
+                task.get();
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeError("Interrupted while forked.");
+        } catch (ExecutionException e) {
+            // Anything but a runtime error is a bug in the interpreter, not the scenario
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) throw (Error) cause;
+            throw (RuntimeException) cause;
+        } finally {
+            workers.shutdown();
+        }
+        return children;
+    }
 
-            @Override
-            public int arity() {
-                return 0; // clock takes no arguments
-            }
-        });
+    // An interpreter for one chunk of a parallel native. Like a spawned task
+    // it shares this one's state as it is, so it can't run inside a fork, but
+    // it may only write what was made in epoch or later.
+    Interpreter worker(int epoch) {
+        if (fork != null) {
+            throw new RuntimeError("Cannot run in parallel inside a fork.");
+        }
+        Interpreter worker = new Interpreter(this, output, null, null);
+        worker.readOnlyBefore = epoch;
+        return worker;
+    }
+
+    // Runs function on another thread. Its interpreter shares this one's
+    // globals, so tasks talk through them and through channels.
+    LoxTask spawn(LoxCallable function) {
+        if (fork != null) {
+            throw new RuntimeError("Cannot spawn inside a fork.");
+        }
+        Interpreter task = new Interpreter(this, output, null, null);
+        tasks.incrementAndGet();
+        return LoxTask.start(task, function, tasks::decrementAndGet);
+    }
+
+    // What calling a generator function returns. Its body runs in an
+    // interpreter of its own, but only while this one waits on it, so it
+    // shares this one's fork and event loop as they are.
+    LoxGenerator generator(LoxFunction function, Enviroment environment) {
+        Interpreter body = new Interpreter(this, output, fork, events);
+        // Not the caller's scope: the suspended body would keep the generator itself reachable
+        body.enviroment = environment;
+        body.generator = new LoxGenerator.Producer(function, body, environment);
+        return new LoxGenerator(body.generator, fork);
+    }
+
+    Fork currentFork() {
+        return fork;
+    }
+
+    // In a fork, shared environments are read through this child's copies
+    private Enviroment reading(Enviroment environment) {
+        return fork == null ? environment : fork.read(environment);
+    }
+
+    // position is where the write is, for the error if it may not be
+    private Enviroment writing(Enviroment environment, int position) {
+        if (environment.epoch < readOnlyBefore) {
+            throw new RuntimeError(position, "Parallel callbacks can't assign to variables declared outside them.");
+        }
+        return fork == null ? environment : fork.write(environment);
+    }
+
+    OutputSink output() {
+        return output;
+    }
+
+    // Null in interpreters other than the main one
+    EventLoop eventLoop() {
+        return events;
+    }
+
+    LoxList reading(LoxList list) {
+        return fork == null ? list : fork.read(list);
     }
 
-    public void interpret(List<Stmt> statments) {
+    LoxList writing(LoxList list) {
+        return fork == null ? list : fork.write(list);
+    }
+
+    void setScript(Path script) {
+        Path path = script.toAbsolutePath().normalize();
+        directory = path.getParent();
+        loading.add(path);
+    }
+
+    // Starts compiling the modules a program imports before it reaches them
+    void prefetchImports(List<Stmt> statements) {
+        ModuleLoader.prefetch(statements, directory);
+    }
+
+    // Stops the script with a runtime error once it has run for longer than nanos,
+    // counting from now. Tasks, generators and callbacks it starts are bound by it too.
+    void setTimeLimit(long nanos) {
+        deadline = System.nanoTime() + nanos;
+        if (deadline == 0) deadline = 1;
+    }
+
+    // Nanoseconds left before the time limit, or Long.MAX_VALUE if there is
+    // none; throws once the limit has passed
+    long timeLeft() {
+        if (deadline == 0) return Long.MAX_VALUE;
+        long left = deadline - System.nanoTime();
+        if (left <= 0) {
+            throw new RuntimeError("Script ran past its time limit.");
+        }
+        return left;
+    }
+
+    private void tick() {
+        if (--untilCheck > 0) return;
+        untilCheck = CHECK_INTERVAL;
+        timeLeft();
+    }
+
+    // lines is the line table of the source the statements were compiled from
+    public void interpret(List<Stmt> statments, LineTable lines) {
        try {
            for (Stmt statement : statments) {
                execute(statement);
            }
+           events.run();
+       } catch (InterruptedException error) {
+           Thread.currentThread().interrupt();
        } catch (RuntimeError error) {
-           Lox.runtimeError(error);
+           output.flush();
+           reporter.runtimeError(error.locate(lines));
+       } finally {
+           output.flush();
        }
     }
 
-    private void execute(Stmt statement) {
-        statement.accept(this);
+    // Runs one top-level statement of a program that is still being parsed.
+    // Output stays buffered; returns false if a runtime error stopped it.
+    boolean interpretNext(Stmt statement, LineTable lines) {
+        try {
+            execute(statement);
+            return true;
+        } catch (RuntimeError error) {
+            output.flush();
+            reporter.runtimeError(error.locate(lines));
+            return false;
+        }
+    }
+
+    // Runs the callbacks the top level scheduled, once interpretNext has run all of it.
+    // Returns false if a runtime error stopped them.
+    boolean runEvents() {
+        try {
+            events.run();
+            return true;
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            return true;
+        } catch (RuntimeError error) {
+            output.flush();
+            reporter.runtimeError(error);
+            return false;
+        } finally {
+            output.flush();
+        }
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    OutputSink getOutput() {
+        return output;
+    }
+
+    private void execute(Stmt statement) {
+        statement.accept(this);
     }
 
     private String stringify(Object object) {
         if (object == null)
             return "nil";
         if (object instanceof Double) {
-            String text = object.toString();
-            if (text.endsWith(".0")) {
-                text = text.substring(0, text.length() - 2);
+            return numbers.toString((double) object);
+        }
+        if (object instanceof LoxList) {
+            StringBuilder text = new StringBuilder("[");
+            Object[] elements = reading((LoxList) object).toArray();
+            for (int i = 0; i < elements.length; i++) {
+                if (i > 0) text.append(", ");
+                text.append(stringify(elements[i]));
             }
-            return text;
+            return text.append("]").toString();
         }
         return object.toString();
     }
@@ -62,31 +301,31 @@ public class Interpreter implements Expr.Visitor<Object>,
         // TODO Auto-generated method stub
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
-        switch (expr.operator.type) {
+        switch (expr.operator) {
             case PLUS:
                 if (left instanceof Double && right instanceof Double) {
                     return (double) left + (double) right;
                 }
-                if (left instanceof String && right instanceof String) {
-                    return (String) left + (String) right; // Concatenate strings
+                if (LoxRope.isString(left) && LoxRope.isString(right)) {
+                    return LoxRope.concat(left, right); // Concatenate strings
                 }
-                throw new RuntimeError(expr.operator,
+                throw new RuntimeError(expr.position,
                         "Operands must be two numbers or two strings.");
 
             case MINUS:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(expr.position, left, right);
                 if (left instanceof Double && right instanceof Double) {
                     return (double) left - (double) right;
                 }
 
             case STAR:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(expr.position, left, right);
                 if (left instanceof Double && right instanceof Double) {
                     return (double) left * (double) right;
                 }
 
             case SLASH:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(expr.position, left, right);
                 if (left instanceof Double && right instanceof Double) {
                     if ((double) right == 0.0) {
                         throw new RuntimeException("Division by zero.");
@@ -103,27 +342,27 @@ public class Interpreter implements Expr.Visitor<Object>,
 
             // Comparison operators
             case GREATER:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(expr.position, left, right);
                 if (left instanceof Double && right instanceof Double) {
                     return (double) left > (double) right;
                 }
             case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(expr.position, left, right);
                 if (left instanceof Double && right instanceof Double) {
                     return (double) left >= (double) right;
                 }
             case LESS:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(expr.position, left, right);
                 if (left instanceof Double && right instanceof Double) {
                     return (double) left < (double) right;
                 }
             case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(expr.position, left, right);
                 if (left instanceof Double && right instanceof Double) {
                     return (double) left <= (double) right;
                 }
             default:
-                throw new RuntimeException("Unknown operator: " + expr.operator.lexeme);
+                throw new RuntimeException("Unknown operator: " + expr.operator);
         }
     }
 
@@ -144,9 +383,9 @@ public class Interpreter implements Expr.Visitor<Object>,
         // TODO Auto-generated method stub
         Object right = evaluate(expr.right);
 
-        switch (expr.operator.type) {
+        switch (expr.operator) {
             case MINUS:
-                checkNumberOperand(expr.operator, right);
+                checkNumberOperand(expr.position, right);
                 return -(double) right; // Assuming right is a number
             case BANG:
                 return !isTruthy(right); // Negate the truthiness
@@ -168,24 +407,24 @@ public class Interpreter implements Expr.Visitor<Object>,
     }
 
     private boolean isEquals(Object left, Object right) {
-        if (left == null && right == null)
-            return true; // both are nil
+        if (left == right)
+            return true; // both are nil, or the same interned string or object
         if (left == null || right == null)
             return false; // one is nil, the other is not
-        return left.equals(right); // use equals method for other types
+        return LoxRope.flatten(left).equals(LoxRope.flatten(right)); // use equals method for other types
     }
 
-    private void checkNumberOperands(Token operator, Object left, Object right) {
+    private void checkNumberOperands(int position, Object left, Object right) {
         if (left instanceof Double && right instanceof Double)
             return;
-        throw new RuntimeError(operator,
+        throw new RuntimeError(position,
                 "Operands must be numbers.");
     }
 
-    private void checkNumberOperand(Token operator, Object operand) {
+    private void checkNumberOperand(int position, Object operand) {
         if (operand instanceof Double)
             return;
-        throw new RuntimeError(operator,
+        throw new RuntimeError(position,
                 "Operand must be a number.");
     }
 
@@ -198,7 +437,16 @@ public class Interpreter implements Expr.Visitor<Object>,
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
          Object value = evaluate(stmt.expression);
-         System.out.println(stringify(value));
+         // Held across both writes so lines printed by concurrent tasks don't interleave
+         synchronized (output) {
+             if (value instanceof Double) {
+                 int length = numbers.format((double) value);
+                 output.write(numbers.buffer(), 0, length);
+             } else {
+                 output.write(stringify(value));
+             }
+             output.newline();
+         }
          return null; // No return value for print statements
     }
 
@@ -208,33 +456,35 @@ public class Interpreter implements Expr.Visitor<Object>,
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
-        enviroment.define(stmt.name.lexeme, value);
+        writing(enviroment, stmt.position).define(stmt.name, value);
         return null; // No return value for variable statements
     }
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
         // TODO Auto-generated method stub
-        return lookupVariable(expr.name, expr);
+        if (expr.depth >= 0) {
+            return reading(enviroment.ancestor(expr.depth)).getAt(0, SymbolTable.name(expr.name));
+        }
+
+        return reading(globals).getGlobal(expr.name, expr.position);
     }
 
-    private Object lookupVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return enviroment.getAt(distance, name.lexeme);
+    private Object lookupVariable(String name, int position, int distance) {
+        if (distance >= 0) {
+            return reading(enviroment.ancestor(distance)).getAt(0, name);
         }
        
-        return globals.get(name);
+        return reading(globals).getGlobal(SymbolTable.id(name), position);
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            enviroment.assignAt(distance, expr.name, value);
+        if (expr.depth >= 0) {
+            writing(enviroment.ancestor(expr.depth), expr.position).assignAt(0, SymbolTable.name(expr.name), value);
         } else {
-            globals.assign(expr.name, value);
+            writing(globals, expr.position).assignGlobal(expr.name, expr.position, value);
         }
         return value; // Return the assigned value
     }
@@ -268,14 +518,26 @@ public class Interpreter implements Expr.Visitor<Object>,
         return null; // No return value for if statements
     }
 
+    @Override
+    public Void visitSwitchStmt(Stmt.Switch stmt) {
+        Object value = evaluate(stmt.subject);
+        int target = stmt.table.lookup(LoxRope.flatten(value));
+        if (target >= 0) {
+            executeBlock(stmt.cases.get(target).body, new Enviroment(enviroment));
+        } else if (stmt.defaultBranch != null) {
+            executeBlock(stmt.defaultBranch, new Enviroment(enviroment));
+        }
+        return null; // No return value for switch statements
+    }
+
     @Override
     public Object visitLogicalExpr(Expr.Logical expr) {
         Object left = evaluate(expr.left);
-        if (expr.operator.type == TokenType.OR) {
+        if (expr.operator == TokenType.OR) {
             if (isTruthy(left)) {
                 return left; // Short-circuit evaluation for OR
             }
-        } else if (expr.operator.type == TokenType.AND) {
+        } else if (expr.operator == TokenType.AND) {
             if (!isTruthy(left)) {
                 return left; // Short-circuit evaluation for AND
             }
@@ -284,9 +546,52 @@ public class Interpreter implements Expr.Visitor<Object>,
         return evaluate(expr.right);
     }
 
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        Object value = stmt.value == null ? null : evaluate(stmt.value);
+        generator.yield(value);
+        return null;
+    }
+
+    @Override
+    public Void visitForInStmt(Stmt.ForIn stmt) {
+        Object iterable = evaluate(stmt.iterable);
+        if (iterable instanceof LoxList) {
+            // Elements appended by the body are reached too
+            LoxList list = (LoxList) iterable;
+            for (int i = 0; i < reading(list).size(); i++) {
+                loopPass(stmt, reading(list).get(i));
+            }
+            return null;
+        }
+        if (!(iterable instanceof LoxGenerator)) {
+            throw new RuntimeError(stmt.position, "Can only loop over a generator or a list.");
+        }
+        LoxGenerator values = (LoxGenerator) iterable;
+        while (!values.done(this)) {
+            loopPass(stmt, values.next(this));
+        }
+        return null;
+    }
+
+    // Each pass gets a fresh variable, so closures made in the body keep their own value
+    private void loopPass(Stmt.ForIn stmt, Object value) {
+        Enviroment pass = new Enviroment(enviroment);
+        pass.define(stmt.name, value);
+        Enviroment previous = enviroment;
+        try {
+            enviroment = pass;
+            tick();
+            execute(stmt.body);
+        } finally {
+            enviroment = previous;
+        }
+    }
+
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
         while (isTruthy(evaluate(stmt.condition))) {
+            tick();
             execute(stmt.body);
         }
         return null; // No return value for while statements
@@ -295,28 +600,72 @@ public class Interpreter implements Expr.Visitor<Object>,
     @Override
     public Object visitCallExpr(Expr.Call expr) {
         Object callee = evaluate(expr.callee);
-        
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.arguments) {
-            arguments.add(evaluate(argument));
+        try {
+            tick();
+            return call(expr, callee);
+        } catch (RuntimeError error) {
+            // Natives have no position of their own, so their errors point at the call
+            if (error.position != RuntimeError.NOWHERE) throw error;
+            throw new RuntimeError(expr.paren, error.getMessage());
         }
+    }
 
+    private Object call(Expr.Call expr, Object callee) {
+        List<Expr> args = expr.arguments;
+
+        // The argument count is fixed by the parser, so each arity gets its
+        // own entry point and small calls never build an argument array
+        switch (args.size()) {
+            case 0:
+                return callable(expr, callee, 0).call0(this);
+            case 1: {
+                Object a = evaluate(args.get(0));
+                return callable(expr, callee, 1).call1(this, a);
+            }
+            case 2: {
+                Object a = evaluate(args.get(0));
+                Object b = evaluate(args.get(1));
+                return callable(expr, callee, 2).call2(this, a, b);
+            }
+            case 3: {
+                Object a = evaluate(args.get(0));
+                Object b = evaluate(args.get(1));
+                Object c = evaluate(args.get(2));
+                return callable(expr, callee, 3).call3(this, a, b, c);
+            }
+            case 4: {
+                Object a = evaluate(args.get(0));
+                Object b = evaluate(args.get(1));
+                Object c = evaluate(args.get(2));
+                Object d = evaluate(args.get(3));
+                return callable(expr, callee, 4).call4(this, a, b, c, d);
+            }
+            default: {
+                Object[] arguments = new Object[args.size()];
+                for (int i = 0; i < arguments.length; i++) {
+                    arguments[i] = evaluate(args.get(i));
+                }
+                return callable(expr, callee, arguments.length).call(this, arguments);
+            }
+        }
+    }
+
+    private LoxCallable callable(Expr.Call expr, Object callee, int argumentCount) {
         if (!(callee instanceof LoxCallable)) {
             throw new RuntimeError(expr.paren, "Can only call functions and classes.");
         }
 
         LoxCallable function = (LoxCallable) callee;
-        if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
+        if (argumentCount != function.arity()) {
+            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + argumentCount + ".");
         }
-
-        return function.call(this, arguments);
+        return function;
     }
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
         LoxFunction function = new LoxFunction(stmt , enviroment , false);
-        enviroment.define(stmt.name.lexeme, function);
+        writing(enviroment, stmt.position).define(stmt.name, function);
         return null; // No return value for function declarations
     }
 
@@ -329,69 +678,149 @@ public class Interpreter implements Expr.Visitor<Object>,
         throw new Return(value); // Throw a Return exception to exit the function
     }
 
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        Path path = ModuleLoader.resolve(directory, stmt.path);
+        Imported module = modules.get(path);
+        if (module == null) {
+            if (!loading.add(path)) {
+                throw new RuntimeError(stmt.position, "Import cycle through '" + stmt.path + "'.");
+            }
+            try {
+                module = instantiate(stmt, ModuleLoader.load(path));
+            } finally {
+                loading.remove(path);
+            }
+            modules.put(path, module);
+        }
+        String conflict = writing(globals, stmt.position).importGlobals(module.globals, module.exports);
+        if (conflict != null) {
+            throw new RuntimeError(stmt.position,
+                    "Importing '" + stmt.path + "' would redefine the global '" + conflict + "'.");
+        }
+        return null;
+    }
+
+    // A module as this interpreter ran it: its globals and the names it exports
+    private static final class Imported {
+        final Enviroment globals;
+        final List<String> exports;
+
+        Imported(Enviroment globals, List<String> exports) {
+            this.globals = globals;
+            this.exports = exports;
+        }
+    }
+
+    // Runs a module's top level in fresh globals, which its functions keep using
+    private Imported instantiate(Stmt.Import stmt, Module compiled) {
+        if (compiled.statements == null) {
+            throw new RuntimeError(stmt.position, "Could not read module '" + stmt.path + "'.");
+        }
+        if (!compiled.errors.isEmpty()) {
+            output.flush();
+            reporter.compileErrors(compiled.errors);
+            throw new RuntimeError(stmt.position, "Could not compile module '" + stmt.path + "'.");
+        }
+
+        Enviroment moduleGlobals = new Enviroment();
+        Natives.define(moduleGlobals);
+        Enviroment previousGlobals = globals;
+        Enviroment previous = enviroment;
+        Path previousDirectory = directory;
+        globals = moduleGlobals;
+        enviroment = moduleGlobals;
+        directory = compiled.path.getParent();
+        try {
+            for (Stmt statement : compiled.statements) {
+                execute(statement);
+            }
+        } catch (RuntimeError error) {
+            throw error.locate(compiled.lines);
+        } finally {
+            globals = previousGlobals;
+            enviroment = previous;
+            directory = previousDirectory;
+        }
+        return new Imported(moduleGlobals, compiled.exports);
+    }
+
     @Override
     public Void visitClassStmt(Stmt.Class stmt) {
         Object superclass = null;
         if (stmt.superclass != null) {
             superclass = evaluate(stmt.superclass);
             if (!(superclass instanceof LoxClass)) {
-                throw new RuntimeError(stmt.superclass.name, "Superclass must be a class.");
+                throw new RuntimeError(stmt.superclass.position, "Superclass must be a class.");
             }
         }
-        enviroment.define(stmt.name.lexeme, null); // Define the class in the environment
+        writing(enviroment, stmt.position).define(stmt.name, null); // Define the class in the environment
         if(stmt.superclass != null){
             enviroment = new Enviroment(enviroment);
             enviroment.define("super", superclass);
         }
         
-        Map<String, LoxFunction> methods = new HashMap<>();
+        Map<String, LoxFunction> methods = new IdentityHashMap<>();
         for (Stmt.Function method : stmt.methods) {
-            LoxFunction function = new LoxFunction(method, enviroment , method.name.lexeme.equals("init")      );
-            methods.put(method.name.lexeme, function); // Add method to the class
+            String name = SymbolTable.name(method.name);
+            LoxFunction function = new LoxFunction(method, enviroment , name.equals("init")      );
+            methods.put(name, function); // Add method to the class
         }
         
-        LoxClass klass = new LoxClass(stmt.name.lexeme ,(LoxClass) superclass , methods ); // Create a new class instance
+        LoxClass klass = new LoxClass(SymbolTable.name(stmt.name) ,(LoxClass) superclass , methods ); // Create a new class instance
         if(stmt.superclass != null){
             enviroment = enviroment.enclosing;
         }
-        enviroment.assign(stmt.name, klass); // Assign the class instance to the environment
+        writing(enviroment, stmt.position).assign(stmt.name, stmt.position, klass); // Assign the class instance to the environment
         return null; // No return value for class declarations
     }
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookupVariable(expr.keyword, expr);
+        return lookupVariable("this", expr.position, expr.depth);
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
         Object object = evaluate(expr.object);
         if (object instanceof LoxInstance) {
-            return ((LoxInstance) object).get(expr.name);
+            String name = SymbolTable.name(expr.name);
+            if (fork != null) return fork.get((LoxInstance) object, name, expr.position);
+            return ((LoxInstance) object).get(name, expr.position);
+        }
+        if (object instanceof LoxGenerator) {
+            return ((LoxGenerator) object).get(SymbolTable.name(expr.name), expr.position);
         }
-        throw new RuntimeError(expr.name, "Only instances have properties.");
+        throw new RuntimeError(expr.position, "Only instances have properties.");
     }
 
     @Override
     public Object visitSetExpr(Expr.Set expr) {
         Object object = evaluate(expr.object);
         if(!(object instanceof LoxInstance)) {
-            throw new RuntimeError(expr.name, "Only instances have properties.");
+            throw new RuntimeError(expr.position, "Only instances have properties.");
         }
         LoxInstance instance = (LoxInstance) object;
         Object value = evaluate(expr.value);
-        instance.set(expr.name, value);
+        if (instance.epoch < readOnlyBefore) {
+            throw new RuntimeError(expr.position, "Parallel callbacks can't set fields of instances made outside them.");
+        }
+        if (fork != null) {
+            fork.set(instance, SymbolTable.name(expr.name), value);
+        } else {
+            instance.set(SymbolTable.name(expr.name), value);
+        }
         return null;
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
-        LoxClass superclass = (LoxClass) enviroment.getAt(distance, "super");
-        LoxInstance object = (LoxInstance) enviroment.getAt(distance - 1, "this");
-        LoxFunction method = superclass.findMethod(expr.method.lexeme);
+        int distance = expr.depth;
+        LoxClass superclass = (LoxClass) reading(enviroment.ancestor(distance)).getAt(0, "super");
+        LoxInstance object = (LoxInstance) reading(enviroment.ancestor(distance - 1)).getAt(0, "this");
+        LoxFunction method = superclass.findMethod(SymbolTable.name(expr.method));
         if (method == null) {
-            throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
+            throw new RuntimeError(expr.methodPosition, "Undefined property '" + SymbolTable.name(expr.method) + "'.");
         }
         return method.bind(object);
     }
@@ -0,0 +1,76 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Lowered form of a switch statement: maps a case label to the index of its case.
+// Integral number labels that sit close together get a dense array, everything
+// else goes through a hash map. Both use the same equality as Interpreter.isEquals.
+public class JumpTable {
+    // Don't waste more than this many empty slots per label on a dense table
+    private static final int MAX_DENSE_SPREAD = 4;
+
+    private final Map<Object, Integer> targets;
+    private final int[] dense;
+    private final int denseBase;
+
+    private JumpTable(Map<Object, Integer> targets, int[] dense, int denseBase) {
+        this.targets = targets;
+        this.dense = dense;
+        this.denseBase = denseBase;
+    }
+
+    static JumpTable build(List<Stmt.Switch.Case> cases) {
+        Map<Object, Integer> targets = new HashMap<>();
+        for (int i = 0; i < cases.size(); i++) {
+            Stmt.Switch.Case c = cases.get(i);
+            for (Object label : c.labels) {
+                targets.putIfAbsent(label, i); // The Resolver reports duplicates
+            }
+        }
+
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (Object label : targets.keySet()) {
+            if (!isDenseKey(label)) {
+                return new JumpTable(targets, null, 0);
+            }
+            int key = (int) (double) (Double) label;
+            min = Math.min(min, key);
+            max = Math.max(max, key);
+        }
+
+        if (targets.isEmpty() || (long) max - min + 1 > (long) targets.size() * MAX_DENSE_SPREAD) {
+            return new JumpTable(targets, null, 0);
+        }
+
+        int[] dense = new int[max - min + 1];
+        Arrays.fill(dense, -1);
+        for (Map.Entry<Object, Integer> entry : targets.entrySet()) {
+            dense[(int) (double) (Double) entry.getKey() - min] = entry.getValue();
+        }
+        return new JumpTable(null, dense, min);
+    }
+
+    // Returns the index of the matching case, or -1 if none matches
+    int lookup(Object value) {
+        if (dense != null) {
+            if (!isDenseKey(value)) return -1;
+            long slot = (long) (double) (Double) value - denseBase;
+            if (slot < 0 || slot >= dense.length) return -1;
+            return dense[(int) slot];
+        }
+        Integer target = targets.get(value);
+        return target == null ? -1 : target;
+    }
+
+    // -0 is not equal to 0 under Double.equals, so it must not share a slot with it
+    private static boolean isDenseKey(Object value) {
+        if (!(value instanceof Double)) return false;
+        double number = (Double) value;
+        if (number != Math.rint(number) || number < Integer.MIN_VALUE || number > Integer.MAX_VALUE) {
+            return false;
+        }
+        return number != 0.0 || 1.0 / number > 0;
+    }
+}
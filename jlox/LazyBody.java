@@ -0,0 +1,95 @@
+import java.nio.BufferUnderflowException;
+import java.util.List;
+
+// The unbuilt body of a function. Either the parser only brace-matched it
+// and recorded where it is in the source, or it sits undecoded in a cached
+// program. The first call builds it and the result is kept on the declaration.
+public class LazyBody {
+    private TokenSource source;
+    private AstReader reader;
+    private final int start;
+    private final int end;
+    private final int line;
+    private Resolver.Context context;
+    private boolean failed = false;
+
+    LazyBody(TokenSource source, int start, int end, int line) {
+        this.source = source;
+        this.start = start;
+        this.end = end;
+        this.line = line;
+    }
+
+    // A body in a cached program; it was resolved before it was stored
+    LazyBody(AstReader reader, int start) {
+        this.reader = reader;
+        this.start = start;
+        this.end = start;
+        this.line = 0;
+    }
+
+    // Called by the Resolver when it reaches the declaration
+    void capture(Resolver.Context context) {
+        this.context = context;
+    }
+
+    synchronized List<Stmt> compile(Stmt.Function function) {
+        if (function.body != null) {
+            return function.body;
+        }
+        if (reader != null) {
+            List<Stmt> body;
+            try {
+                body = reader.readBody(start, function.position);
+            } catch (IllegalStateException | BufferUnderflowException | IndexOutOfBoundsException e) {
+                // The cache entry passed its checksum, so only a bug in AstWriter gets here
+                throw failure(function, "Could not decode function '");
+            }
+            function.body = body;
+            reader = null;
+            return body;
+        }
+        if (failed || context == null) {
+            throw failure(function, "Could not compile function '");
+        }
+
+        Parser parser = new Parser(source.rescan(start, end, line), false);
+        List<Stmt> body = parser.functionBody();
+        if (parser.hadError() || !Resolver.resolveBody(context, function, body)) {
+            failed = true;
+            throw failure(function, "Could not compile function '");
+        }
+
+        function.body = body;
+        source = null; // The source is no longer needed once the body is built
+        context = null;
+        return body;
+    }
+
+    // Bodies are built before the function runs, so the error gets the
+    // function's line table here rather than on its way out of the body
+    private static RuntimeError failure(Stmt.Function function, String message) {
+        return new RuntimeError(function.position, message + SymbolTable.name(function.name) + "'.")
+                .locate(function.lines);
+    }
+
+    // Builds the body ahead of its first call, as the parallel front end
+    // does. Errors go to Lox.error rather than to the caller. A body whose
+    // enclosing code never got resolved has no context; it is only parsed,
+    // so its syntax errors are still reported.
+    void compileQuietly(Stmt.Function function) {
+        if (context == null && reader == null) {
+            synchronized (this) {
+                if (source != null) {
+                    new Parser(source.rescan(start, end, line), false).functionBody();
+                }
+            }
+            return;
+        }
+        try {
+            compile(function);
+        } catch (RuntimeError error) {
+            // Already reported by the parser or resolver
+        }
+    }
+}
@@ -0,0 +1,51 @@
+import java.util.Arrays;
+
+// Where each line of one program's source starts. AST nodes keep the source
+// offset of the token they report errors at instead of the Token itself, and
+// the offset is only turned into a line when an error is reported. The scanner
+// fills the table as it goes; every node of the program, lazily built bodies
+// included, shares it.
+public class LineTable {
+    // starts[i] is the offset line i + 2 begins at; line 1 begins at 0
+    private int[] starts;
+    private int count;
+
+    LineTable() {
+        this(new int[64], 0);
+    }
+
+    // A table read back from a cached program or snapshot
+    LineTable(int[] starts, int count) {
+        this.starts = starts;
+        this.count = count;
+    }
+
+    // Records that a line begins at offset. Rescanning a lazy body passes
+    // newlines that were recorded the first time; those are ignored.
+    synchronized void add(int offset) {
+        if (count > 0 && offset <= starts[count - 1]) return;
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+        }
+        starts[count++] = offset;
+    }
+
+    // The line the character at offset is on
+    synchronized int line(int offset) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (starts[middle] <= offset) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low + 1;
+    }
+
+    synchronized int[] starts() {
+        return Arrays.copyOf(starts, count);
+    }
+}
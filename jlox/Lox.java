@@ -1,35 +1,92 @@
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 import java.io.IOException;
 
 public class Lox {
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
-    private static final Interpreter interpreter = new Interpreter();
+    // Compile the whole program, function bodies included, before running any of it
+    private static boolean validate = false;
+    // Keep compiled programs in .loxc files, next to the script or in cacheDir
+    private static boolean useCache = false;
+    private static Path cacheDir = null;
+    // Compiles and stores the cache entry of a script that missed, while the script runs
+    private static Thread cacheWriter = null;
+    // Measure what the script's compiled program costs and report it after the run
+    private static boolean memoryReport = false;
+    // Socket of a jlox server to run the script on, for --client
+    private static Path clientSocket = null;
+    // Socket to serve on, for --server
+    private static Path serverSocket = null;
+    // Directory of scripts to run, for --batch
+    private static Path batchDirectory = null;
+    // Snapshot of the globals to start from, and to write once the script has run
+    private static Path startSnapshot = null;
+    private static Path saveSnapshot = null;
+    // The command line prints errors and turns them into its exit code
+    private static final ErrorReporter console = new ErrorReporter() {
+        @Override
+        public void compileErrors(ErrorLog errors) {
+            report(errors);
+        }
+
+        @Override
+        public void runtimeError(RuntimeError error) {
+            Lox.runtimeError(error);
+        }
+    };
+    private static final Interpreter interpreter = new Interpreter(ChannelOutput.stdout(), console);
 
     private static void runFile(String path) {
-        // Here you would implement the logic to read and execute a file
-        try {
-            byte[] bytes = Files.readAllBytes(java.nio.file.Paths.get(path));
-            run(new String(bytes, Charset.defaultCharset()));
+        // Scripts are mapped rather than read, and scanned as UTF-8 bytes in place
+        try (FileChannel channel = FileChannel.open(Paths.get(path))) {
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            interpreter.setScript(Paths.get(path));
+            if (memoryReport) {
+                runMeasured(bytes);
+            } else if (useCache) {
+                runCached(Paths.get(path), bytes);
+            } else {
+                run(new ByteScanner(bytes).tokens());
+            }
+            finishCacheWrite();
             if (hadError) {
                 System.exit(65);
             }
             if (hadRuntimeError) {
                 System.exit(70);
             }
+            if (saveSnapshot != null) {
+                saveSnapshot();
+            }
         } catch (IOException e) {
             System.err.println("Could not read file: " + e.getMessage());
             System.exit(66);
         }
     }
 
+    // Exiting would cut a cache entry off in the middle of being written
+    private static void finishCacheWrite() {
+        if (cacheWriter == null) return;
+        try {
+            cacheWriter.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        cacheWriter = null;
+    }
+
     private static void runPrompt() {
         InputStreamReader input = new InputStreamReader(System.in);
         BufferedReader reader = new BufferedReader(input);
+        ReplSession session = new ReplSession(interpreter);
         for (;;) {
             System.out.print("> ");
             String line;
@@ -41,27 +98,129 @@ public class Lox {
             }
             if (line == null)
                 break; // EOF
-            run(line);
+            session.evaluate(line);
             hadError = false; // Reset error state after each line
         }
 
     }
 
-    private static void run(String source) {
-        // Here you would implement the logic to interpret or compile the source code
-        System.out.println("Running: " + source);
-        
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
+    // A cache hit skips scanning, parsing and resolving altogether. On a miss
+    // the script runs just as it would without a cache, while another thread
+    // compiles it in full, with its own tokens and AST, and stores the result
+    // unless it has errors. Those are reported by the run itself.
+    private static void runCached(Path script, ByteBuffer source) {
+        byte[] hash = ProgramCache.hash(source);
+        Path cache = ProgramCache.pathFor(script, cacheDir, hash);
+        Program program = ProgramCache.load(cache, hash);
+        if (program == null) {
+            cacheWriter = new Thread(() -> {
+                ErrorLog errors = new ErrorLog();
+                TokenBuffer tokens = new ByteScanner(source.duplicate()).tokens();
+                List<Stmt> compiled = compile(tokens, errors);
+                if (errors.isEmpty()) {
+                    ProgramCache.store(cache, hash, compiled, tokens.lines());
+                }
+            }, "lox-cache-writer");
+            cacheWriter.start();
+            run(new ByteScanner(source.duplicate()).tokens());
+            return;
+        }
+        interpreter.prefetchImports(program.statements);
+        interpreter.interpret(program.statements, program.lines);
+    }
+
+    // The report measures the program it then runs, so it is always compiled
+    // from source, in full, and never comes from the cache
+    private static void runMeasured(ByteBuffer source) {
+        MemoryReport report = new MemoryReport();
+        ErrorLog errors = new ErrorLog();
+        List<Stmt> statements = report.compile(source, errors);
+        report(errors);
+        if (!hadError) {
+            interpreter.prefetchImports(statements);
+            interpreter.interpret(statements, report.lines());
+        }
+        report.print();
+    }
+
+    // Parses and resolves the whole program before any of it runs. Function
+    // bodies are built in parallel once the top level is resolved, and all
+    // errors are reported in source order at the end.
+    private static List<Stmt> compile(TokenBuffer tokens) {
+        ErrorLog errors = new ErrorLog();
+        List<Stmt> statements = compile(tokens, errors);
+        report(errors);
+        return statements;
+    }
+
+    // Same, but the errors are only collected into errors, not reported. The
+    // tokens are released once the program is built; nothing in it needs them.
+    static List<Stmt> compile(TokenBuffer tokens, ErrorLog errors) {
+        List<Stmt> statements = compileHoldingTokens(tokens, errors);
+        tokens.discard();
+        return statements;
+    }
+
+    // Same, leaving the tokens in the buffer, for MemoryReport to measure
+    static List<Stmt> compileHoldingTokens(TokenBuffer tokens, ErrorLog errors) {
+        ErrorLog log = ErrorLog.open();
+        List<Stmt> statements;
+        try {
+            statements = new Parser(tokens, true).parse();
+            if (log.isEmpty()) {
+                new Resolver().resolve(statements, tokens.lines());
+            }
+        } finally {
+            log.close();
+        }
+        errors.addAll(log);
+        errors.addAll(ParallelCompiler.compile(statements));
+        return statements;
+    }
+
+    static void report(ErrorLog errors) {
+        for (ErrorLog.Entry entry : errors.sorted()) {
+            report(entry.line, entry.where, entry.message);
+        }
+    }
+
+    // Each top-level declaration is parsed, resolved and executed before the
+    // next one is scanned. Once a syntax or resolution error has been seen
+    // nothing more runs, but the rest of the source is still checked so every
+    // error gets reported. With --validate the whole program is compiled first.
+    private static void run(TokenBuffer tokens) {
+        run(tokens, new Resolver());
+    }
 
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
-        if (hadError)
+    // Same, resolving top-level statements with resolver, which a REPL keeps across lines
+    static void run(TokenBuffer tokens, Resolver resolver) {
+        if (validate) {
+            List<Stmt> statements = compile(tokens);
+            if (!hadError) {
+                interpreter.prefetchImports(statements);
+                interpreter.interpret(statements, tokens.lines());
+            }
             return;
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
-        // System.out.println(new ASTPrinter().print(expression));
-        interpreter.interpret(statements);
+        }
+
+        Parser parser = new Parser(tokens, true);
+        boolean running = true;
+        while (parser.hasNext()) {
+            Stmt statement = parser.next();
+            if (hadError) {
+                running = false;
+                continue;
+            }
+            resolver.resolve(statement, tokens.lines());
+            if (running && !hadError) {
+                running = interpreter.interpretNext(statement, tokens.lines());
+            }
+        }
+        tokens.discard();
+        if (running && !hadError) {
+            interpreter.runEvents();
+        }
+        interpreter.getOutput().flush();
     }
 
     public static void error(int line, String message) {
@@ -69,7 +228,15 @@ public class Lox {
     }
 
     private static void report(int line, String where, String message) {
-        System.err.println("[line " + line + "] Error" + where + ": " + message);
+        if (ErrorLog.record(line, where, message)) return; // Reported later, in source order
+        interpreter.getOutput().flush(); // Keep stdout and stderr in order on a terminal
+        System.err.println(ErrorLog.format(line, where, message));
+        hadError = true;
+    }
+
+    // For errors found once the Tokens are gone, at the named token
+    static void error(int line, String lexeme, String message) {
+        report(line, " at '" + lexeme + "'", message);
     }
 
     static void error(Token token, String message) {
@@ -82,20 +249,87 @@ public class Lox {
     }
 
     public static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() +
-                "\n[line " + error.token.line + "]");
+        System.err.println(error.report());
         hadRuntimeError = true;
     }
 
+    private static void saveSnapshot() {
+        try {
+            SnapshotWriter.save(interpreter.globals, saveSnapshot);
+        } catch (IOException e) {
+            System.err.println("Could not write snapshot: " + e.getMessage());
+            System.exit(74);
+        } catch (IllegalStateException e) {
+            System.err.println("Could not write snapshot: " + e.getMessage());
+            System.exit(70);
+        }
+    }
+
     public static void main(String[] args) {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
+        List<String> scripts = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--validate")) {
+                validate = true;
+            } else if (arg.equals("--cache")) {
+                useCache = true;
+            } else if (arg.equals("--cache-dir") && i + 1 < args.length) {
+                useCache = true;
+                cacheDir = Paths.get(args[++i]);
+            } else if (arg.equals("--server") && i + 1 < args.length) {
+                serverSocket = Paths.get(args[++i]);
+            } else if (arg.equals("--batch") && i + 1 < args.length) {
+                batchDirectory = Paths.get(args[++i]);
+            } else if (arg.equals("--client") && i + 1 < args.length) {
+                clientSocket = Paths.get(args[++i]);
+            } else if (arg.equals("--snapshot") && i + 1 < args.length) {
+                startSnapshot = Paths.get(args[++i]);
+            } else if (arg.equals("--save-snapshot") && i + 1 < args.length) {
+                saveSnapshot = Paths.get(args[++i]);
+            } else if (arg.equals("--mem-report")) {
+                memoryReport = true;
+            } else {
+                scripts.add(arg);
+            }
+        }
+
+        // The server and batch modes take no script, and only one mode can be chosen
+        int modes = (serverSocket != null ? 1 : 0) + (batchDirectory != null ? 1 : 0) + (clientSocket != null ? 1 : 0);
+        if (scripts.size() > 1 || modes > 1 || (scripts.size() == 1 && (serverSocket != null || batchDirectory != null))) {
+            System.out.println("Usage: jlox [--validate] [--cache | --cache-dir dir] [--mem-report] [--snapshot file] [--save-snapshot file] [--server socket | --client socket | --batch dir] [script]");
             System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        }
 
+        if (serverSocket != null) {
+            try {
+                LoxServer.serve(serverSocket);
+            } catch (IOException e) {
+                System.err.println("Could not start server: " + e.getMessage());
+                System.exit(74);
+            }
+        }
+        if (batchDirectory != null) {
+            System.exit(LoxBatch.run(batchDirectory));
+        }
+        if (scripts.size() == 1 && clientSocket != null) {
+            System.exit(LoxServer.request(clientSocket, scripts.get(0)));
+        }
+
+        if (startSnapshot != null) {
+            try {
+                SnapshotReader.restore(interpreter.globals, startSnapshot);
+            } catch (IOException | IllegalStateException e) {
+                System.err.println("Could not read snapshot: " + e.getMessage());
+                System.exit(66);
+            }
+        }
+        if (scripts.size() == 1) {
+            runFile(scripts.get(0));
         } else {
             runPrompt();
+            if (saveSnapshot != null) {
+                saveSnapshot();
+            }
         }
     }
 }
@@ -0,0 +1,138 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Runs every .lox file in a directory on one JVM, a worker per core. Each
+// script gets its own Execution through a shared LoxEngine, so scripts only
+// share compiled modules. Output is captured per script and printed in name
+// order as the scripts finish, followed by each script's exit status (as
+// jlox would have exited running it alone) and a timing summary.
+public class LoxBatch {
+    private static final int SLOWEST_SHOWN = 5;
+    // A script still running after this fails with status 70, so one that
+    // loops can't hold up the ones after it
+    private static final Duration TIME_LIMIT = Duration.ofSeconds(60);
+
+    private static final class Result {
+        final Path script;
+        final int status;
+        final String output;
+        final String errors;
+        final long nanos;
+
+        Result(Path script, int status, String output, String errors, long nanos) {
+            this.script = script;
+            this.status = status;
+            this.output = output;
+            this.errors = errors;
+            this.nanos = nanos;
+        }
+    }
+
+    private final LoxEngine engine = new LoxEngine();
+
+    // Returns 0 if every script succeeded, otherwise the highest exit status
+    static int run(Path directory) {
+        List<Path> scripts;
+        try (Stream<Path> files = Files.list(directory)) {
+            scripts = files.filter(path -> path.toString().endsWith(".lox"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            System.err.println("Could not read directory: " + e.getMessage());
+            return 66;
+        }
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        LoxBatch batch = new LoxBatch();
+        long start = System.nanoTime();
+        PrintStream out = System.out;
+        List<Result> results = new ArrayList<>();
+        try {
+            List<Future<Result>> running = new ArrayList<>();
+            for (Path script : scripts) {
+                running.add(workers.submit(() -> batch.runScript(script)));
+            }
+
+            for (Future<Result> future : running) {
+                Result result;
+                try {
+                    result = future.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    throw new IllegalStateException(e);
+                }
+                results.add(result);
+                out.println("== " + directory.relativize(result.script));
+                out.print(result.output);
+                out.print(result.errors);
+            }
+        } finally {
+            // The pool's threads aren't daemons; left running they would keep the JVM up
+            workers.shutdown();
+        }
+        long wall = System.nanoTime() - start;
+
+        return report(out, results, wall, threads);
+    }
+
+    private Result runScript(Path script) {
+        long start = System.nanoTime();
+        byte[] source;
+        try {
+            source = Files.readAllBytes(script);
+        } catch (IOException e) {
+            return new Result(script, 66, "", "Could not read file: " + e.getMessage() + System.lineSeparator(),
+                    System.nanoTime() - start);
+        }
+        MemoryOutput output = new MemoryOutput();
+        try {
+            Execution execution = engine.run(engine.compile(source), script, output, TIME_LIMIT);
+            return new Result(script, execution.getStatus(), output.contents(), execution.getErrors(),
+                    System.nanoTime() - start);
+        } catch (Throwable e) {
+            // A failure inside the interpreter, like a stack overflow, fails this script only
+            return new Result(script, 70, output.contents(), "Script failed: " + e + System.lineSeparator(),
+                    System.nanoTime() - start);
+        }
+    }
+
+    private static int report(PrintStream out, List<Result> results, long wall, int threads) {
+        int failed = 0;
+        int worst = 0;
+        long total = 0;
+        out.println("== Batch results");
+        for (Result result : results) {
+            out.printf("%4d  %8.1f ms  %s%n", result.status, millis(result.nanos), result.script.getFileName());
+            if (result.status != 0) failed++;
+            worst = Math.max(worst, result.status);
+            total += result.nanos;
+        }
+
+        List<Result> slowest = new ArrayList<>(results);
+        slowest.sort((a, b) -> Long.compare(b.nanos, a.nanos));
+        out.printf("%d scripts, %d failed, %d threads%n", results.size(), failed, threads);
+        out.printf("wall %.1f ms, script time %.1f ms, mean %.2f ms, %.0f scripts/s%n",
+                millis(wall), millis(total), results.isEmpty() ? 0.0 : millis(total) / results.size(),
+                results.size() / (wall / 1e9));
+        for (int i = 0; i < Math.min(SLOWEST_SHOWN, slowest.size()); i++) {
+            out.printf("slowest: %8.1f ms  %s%n", millis(slowest.get(i).nanos), slowest.get(i).script.getFileName());
+        }
+        out.flush();
+        return worst;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -1,7 +1,27 @@
-import java.util.List;
-
 public interface LoxCallable {
-    Object call(Interpreter interpreter, List<Object> arguments);
+    Object call(Interpreter interpreter, Object[] arguments);
+
+    // Fixed-arity entry points let a call site pass its arguments directly
+    // instead of packing them into an array first.
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, new Object[0]);
+    }
+
+    default Object call1(Interpreter interpreter, Object a) {
+        return call(interpreter, new Object[] { a });
+    }
+
+    default Object call2(Interpreter interpreter, Object a, Object b) {
+        return call(interpreter, new Object[] { a, b });
+    }
+
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return call(interpreter, new Object[] { a, b, c });
+    }
+
+    default Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        return call(interpreter, new Object[] { a, b, c, d });
+    }
 
     int arity();
     
@@ -0,0 +1,114 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A bounded queue between tasks. send() blocks while the channel is full and
+// receive() while it is empty, so a fast producer is held back to the pace of
+// its consumers. Once closed, a channel refuses new values but still hands
+// out the ones it holds; receive() then returns nil when it runs dry. A
+// value sent happens-before its receipt, so it is safely published.
+//
+// Waiting is done on a ReentrantLock rather than a monitor so that a virtual
+// thread blocked here gives up its carrier thread, and through managedBlock
+// so that a ForkJoinPool worker blocked here can be stood in for.
+public class LoxChannel {
+    private final Object[] buffer;
+    private int head = 0;
+    private int count = 0;
+    private boolean closed = false;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    LoxChannel(int capacity) {
+        this.buffer = new Object[capacity];
+    }
+
+    void send(Object value) throws InterruptedException {
+        send(value, null);
+    }
+
+    // As above, but a wait that outlasts the waiting interpreter's time limit
+    // raises its time limit error
+    void send(Object value, Interpreter waiting) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == buffer.length && !closed) {
+                await(notFull, waiting);
+            }
+            if (closed) {
+                throw new RuntimeError("Send on a closed channel.");
+            }
+            buffer[(head + count) % buffer.length] = value;
+            count++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns nil once the channel is closed and empty
+    Object receive() throws InterruptedException {
+        return receive(null);
+    }
+
+    Object receive(Interpreter waiting) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0 && !closed) {
+                await(notEmpty, waiting);
+            }
+            if (count == 0) return null;
+            Object value = buffer[head];
+            buffer[head] = null;
+            head = (head + 1) % buffer.length;
+            count--;
+            notFull.signal();
+            return value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Wakes every waiting sender and receiver; closing twice is harmless
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns when signalled or when the waiting interpreter's time is up; the
+    // caller checks its condition again, and timeLeft() throws if time is up
+    private static void await(Condition condition, Interpreter waiting) throws InterruptedException {
+        long nanos = waiting == null ? Long.MAX_VALUE : waiting.timeLeft();
+        ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+            private boolean woken = false;
+
+            @Override
+            public boolean block() throws InterruptedException {
+                if (nanos == Long.MAX_VALUE) {
+                    condition.await();
+                } else {
+                    condition.awaitNanos(nanos);
+                }
+                woken = true;
+                return true;
+            }
+
+            @Override
+            public boolean isReleasable() {
+                return woken;
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+}
@@ -1,4 +1,3 @@
-import java.util.List;
 import java.util.Map;
 
 public class LoxClass implements LoxCallable {
@@ -17,6 +16,14 @@ public class LoxClass implements LoxCallable {
         return name;
     }
 
+    LoxClass getSuperclass() {
+        return superclass;
+    }
+
+    Map<String, LoxFunction> getMethods() {
+        return methods;
+    }
+
     public LoxFunction findMethod(String name) {
         if(methods.containsKey(name)) {
             return methods.get(name);
@@ -35,7 +42,7 @@ public class LoxClass implements LoxCallable {
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
+    public Object call(Interpreter interpreter, Object[] arguments) {
         LoxInstance instance = new LoxInstance(this);
         LoxFunction initializer = findMethod("init");
         if (initializer != null) {
@@ -44,6 +51,49 @@ public class LoxClass implements LoxCallable {
         return instance; // Return a new instance of the class
     }
 
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return instantiate(interpreter, 0, null, null, null, null);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        return instantiate(interpreter, 1, a, null, null, null);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        return instantiate(interpreter, 2, a, b, null, null);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return instantiate(interpreter, 3, a, b, c, null);
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        return instantiate(interpreter, 4, a, b, c, d);
+    }
+
+    // The fixed-arity entry points pass their first count arguments on to
+    // the matching entry point of the initializer, so no array is built
+    private LoxInstance instantiate(Interpreter interpreter, int count, Object a, Object b, Object c, Object d) {
+        LoxInstance instance = new LoxInstance(this);
+        LoxFunction initializer = findMethod("init");
+        if (initializer == null) return instance;
+
+        LoxFunction bound = initializer.bind(instance);
+        switch (count) {
+            case 0: bound.call0(interpreter); break;
+            case 1: bound.call1(interpreter, a); break;
+            case 2: bound.call2(interpreter, a, b); break;
+            case 3: bound.call3(interpreter, a, b, c); break;
+            default: bound.call4(interpreter, a, b, c, d); break;
+        }
+        return instance;
+    }
+
     @Override
     public int arity() {
         LoxFunction initializer = findMethod("init");
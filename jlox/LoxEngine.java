@@ -0,0 +1,93 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Entry point for embedding Lox. compile() turns source into a Program, which
+// is immutable and can be shared; run() executes one in a fresh Interpreter
+// with its own output and errors. Nothing here touches the static state the
+// command line uses, so one engine can serve any number of threads.
+//
+// Compiled programs are cached by the SHA-256 of their source, keeping the
+// most recently used ones.
+public class LoxEngine {
+    private static final int DEFAULT_CACHE_SIZE = 64;
+
+    private final Map<String, Program> programs;
+
+    public LoxEngine() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    public LoxEngine(int cacheSize) {
+        this.programs = new LinkedHashMap<String, Program>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Program> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    public Program compile(String source) {
+        return compile(source.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Compiles outside the lock, so two threads may both compile a new source;
+    // the first one cached wins
+    public Program compile(byte[] source) {
+        String key = ProgramCache.hex(ProgramCache.hash(ByteBuffer.wrap(source)));
+        synchronized (programs) {
+            Program cached = programs.get(key);
+            if (cached != null) return cached;
+        }
+
+        ErrorLog errors = new ErrorLog();
+        TokenBuffer tokens = new ByteScanner(ByteBuffer.wrap(source)).tokens();
+        Program program = new Program(Lox.compile(tokens, errors), tokens.lines(), errors);
+        synchronized (programs) {
+            Program cached = programs.putIfAbsent(key, program);
+            return cached != null ? cached : program;
+        }
+    }
+
+    // Runs with output captured in a MemoryOutput and imports relative to the
+    // working directory
+    public Execution run(Program program) {
+        return run(program, null, new MemoryOutput());
+    }
+
+    // script, if given, is the file the program came from: imports are
+    // relative to it and importing it again is a cycle
+    public Execution run(Program program, Path script, OutputSink output) {
+        return run(program, script, output, null);
+    }
+
+    // As above, but a script still running after timeLimit, if one is given,
+    // is stopped with a runtime error
+    public Execution run(Program program, Path script, OutputSink output, Duration timeLimit) {
+        Execution execution = new Execution(output);
+        if (program.hasErrors()) {
+            execution.compileErrors(program.errors);
+            return execution;
+        }
+
+        Interpreter interpreter = new Interpreter(output, execution);
+        if (script != null) {
+            interpreter.setScript(script);
+        }
+        if (timeLimit != null) {
+            interpreter.setTimeLimit(timeLimit.toNanos());
+        }
+        interpreter.prefetchImports(program.statements);
+        interpreter.interpret(program.statements, program.lines);
+        return execution;
+    }
+
+    public int cachedPrograms() {
+        synchronized (programs) {
+            return programs.size();
+        }
+    }
+}
@@ -1,38 +1,117 @@
-import java.util.List;
-
 public class LoxFunction implements LoxCallable {
 
     private final Stmt.Function declaration;
     private final Enviroment closure;
     private final boolean isInitializer;
+    // Globals of the module the function was declared in; calls run against them
+    private final Enviroment globals;
 
     public LoxFunction(Stmt.Function declaration , Enviroment closure , boolean isInitializer) {
+        this(declaration, closure, isInitializer, closure.root());
+    }
+
+    private LoxFunction(Stmt.Function declaration, Enviroment closure, boolean isInitializer, Enviroment globals) {
         this.declaration = declaration;
         this.closure = closure;
         this.isInitializer = isInitializer;
+        this.globals = globals;
     }
 
 
+    Stmt.Function getDeclaration() {
+        return declaration;
+    }
+
+    Enviroment getClosure() {
+        return closure;
+    }
+
+    boolean isInitializer() {
+        return isInitializer;
+    }
+
     public LoxFunction bind(LoxInstance instance) {
         Enviroment environment = new Enviroment(closure);
         environment.define("this", instance);
-        return new LoxFunction(declaration, environment , isInitializer);
+        return new LoxFunction(declaration, environment, isInitializer, globals);
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
+    public Object call(Interpreter interpreter, Object[] arguments) {
         Enviroment environment = new Enviroment(closure);
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+        for (int i = 0; i < declaration.params.length; i++) {
+            environment.define(param(i), arguments[i]);
         }
+        return invoke(interpreter, environment);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return invoke(interpreter, new Enviroment(closure));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        Enviroment environment = new Enviroment(closure);
+        environment.define(param(0), a);
+        return invoke(interpreter, environment);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        Enviroment environment = new Enviroment(closure);
+        environment.define(param(0), a);
+        environment.define(param(1), b);
+        return invoke(interpreter, environment);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        Enviroment environment = new Enviroment(closure);
+        environment.define(param(0), a);
+        environment.define(param(1), b);
+        environment.define(param(2), c);
+        return invoke(interpreter, environment);
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        Enviroment environment = new Enviroment(closure);
+        environment.define(param(0), a);
+        environment.define(param(1), b);
+        environment.define(param(2), c);
+        environment.define(param(3), d);
+        return invoke(interpreter, environment);
+    }
+
+    private String param(int index) {
+        return SymbolTable.name(declaration.params[index]);
+    }
+
+    // A generator function's body doesn't run until its generator is asked for a value
+    private Object invoke(Interpreter interpreter, Enviroment environment) {
+        // Parses a lazy body, which is what finds out whether it yields
+        declaration.body();
+        if (declaration.generator) return interpreter.generator(this, environment);
+        return run(interpreter, environment);
+    }
 
+    // Runs the body in a frame whose parameters are already bound. Errors
+    // leaving it are given the line table of the program the function is in.
+    Object run(Interpreter interpreter, Enviroment environment) {
+        Enviroment callerGlobals = interpreter.globals;
+        interpreter.globals = globals;
         try {
-            interpreter.executeBlock(declaration.body, environment);
+            interpreter.executeBlock(declaration.body(), environment);
         } catch (Return returnValue) {
             if (isInitializer) {
                 return closure.getAt(0, "this"); // Return 'this' for initializers
             }
             return returnValue.value;
+        } catch (RuntimeError error) {
+            throw error.locate(declaration.lines);
+        } finally {
+            interpreter.globals = callerGlobals;
         }
         
         if(isInitializer) return closure.getAt(0,"this");
@@ -41,12 +120,12 @@ public class LoxFunction implements LoxCallable {
 
     @Override
     public int arity() {
-        return declaration.params.size();
+        return declaration.params.length;
     }
 
     @Override
     public String toString() {
-        return "<fn " + declaration.name.lexeme + ">";
+        return "<fn " + SymbolTable.name(declaration.name) + ">";
     }
     
 }
@@ -0,0 +1,194 @@
+import java.lang.ref.Cleaner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// What a call to a generator function returns: an iterator that runs the
+// function's body only as far as its next yield. next() returns the next
+// value, or nil once the body has returned; done() tells which it will be.
+//
+// The body runs on a thread of its own, but never while its consumer runs:
+// next() and done() hand control to it and wait until it yields or returns.
+// Values are made one at a time, as they are asked for, and nothing is held
+// but the one value done() had to look ahead at, so a pipeline of generators
+// runs in constant memory and Lox code still runs on one thread at a time.
+//
+// Bodies run on virtual threads when the JVM has them and on daemon threads
+// otherwise. A generator dropped before its body finished is cleaned up once
+// the garbage collector finds it: the body's thread is woken and unwinds.
+public class LoxGenerator {
+    private static final ExecutorService threads = newExecutor();
+    private static final Cleaner cleaner = Cleaner.create();
+    // Sent in place of a value when the body returns
+    private static final Object FINISHED = new Object();
+    private static final Object RESUME = new Object();
+
+    // Unwinds a body whose generator was dropped
+    private static final class Abandoned extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Abandoned() {
+            super(null, null, false, false);
+        }
+    }
+
+    // The body's side of the handoff. It holds nothing that leads back to
+    // the generator, so an unused generator can be collected while its body
+    // is suspended.
+    static final class Producer implements Runnable {
+        private final LoxChannel resumes = new LoxChannel(1);
+        private final LoxChannel results = new LoxChannel(1);
+        private final LoxFunction function;
+        private final Interpreter interpreter;
+        private final Enviroment environment;
+
+        Producer(LoxFunction function, Interpreter interpreter, Enviroment environment) {
+            this.function = function;
+            this.interpreter = interpreter;
+            this.environment = environment;
+        }
+
+        @Override
+        public void run() {
+            Object outcome = FINISHED;
+            try {
+                function.run(interpreter, environment);
+            } catch (Abandoned e) {
+                return;
+            } catch (Throwable e) {
+                // Whatever stopped the body, the consumer waiting on results must hear of it
+                outcome = e;
+            }
+            try {
+                results.send(outcome);
+            } catch (InterruptedException e) {
+                // Nobody is left to take it
+            }
+        }
+
+        // Called on the body's thread at each yield statement
+        void yield(Object value) {
+            try {
+                results.send(value);
+                if (resumes.receive() == null) {
+                    throw new Abandoned(); // Closed by the cleaner
+                }
+            } catch (InterruptedException e) {
+                throw new Abandoned();
+            }
+        }
+
+        void abandon() {
+            resumes.close();
+        }
+    }
+
+    private final Producer producer;
+    // Only the interpreters of the fork that made it may run its body
+    private final Fork fork;
+    private final ReentrantLock lock = new ReentrantLock();
+    private boolean started = false;
+    private boolean finished = false;
+    private boolean hasNext = false;
+    private Object next;
+    private final LoxNative nextMethod = new LoxNative("next", 0) {
+        @Override
+        public Object call0(Interpreter interpreter) {
+            return next(interpreter);
+        }
+    };
+    private final LoxNative doneMethod = new LoxNative("done", 0) {
+        @Override
+        public Object call0(Interpreter interpreter) {
+            return done(interpreter);
+        }
+    };
+
+    LoxGenerator(Producer producer, Fork fork) {
+        this.producer = producer;
+        this.fork = fork;
+    }
+
+    private static ExecutorService newExecutor() {
+        ExecutorService virtual = LoxTask.virtualThreads();
+        if (virtual != null) return virtual;
+        // Abandoned bodies all unwind at once after a collection, so idle threads don't linger
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 1, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "lox-generator");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    Object get(String name, int position) {
+        if (name.equals("next")) return nextMethod;
+        if (name.equals("done")) return doneMethod;
+        throw new RuntimeError(position, "Generators have no property '" + name + "'.");
+    }
+
+    boolean done(Interpreter interpreter) {
+        lock.lock();
+        try {
+            lookAhead(interpreter);
+            return !hasNext;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Object next(Interpreter interpreter) {
+        lock.lock();
+        try {
+            lookAhead(interpreter);
+            Object value = next;
+            next = null;
+            hasNext = false;
+            return value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Runs the body to its next yield or its end, unless a value is waiting already
+    private void lookAhead(Interpreter interpreter) {
+        if (hasNext || finished) return;
+        if (interpreter.currentFork() != fork) {
+            throw new RuntimeError("Can't resume a generator made outside this fork.");
+        }
+
+        Object outcome;
+        try {
+            if (!started) {
+                started = true;
+                cleaner.register(this, producer::abandon);
+                threads.execute(producer);
+            } else {
+                producer.resumes.send(RESUME);
+            }
+            outcome = producer.results.receive();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeError("Interrupted while waiting for a generator.");
+        }
+
+        if (outcome == FINISHED) {
+            finished = true;
+        } else if (outcome instanceof Throwable) {
+            // No Lox value is a Throwable, so this is what stopped the body
+            finished = true;
+            if (outcome instanceof RuntimeException) throw (RuntimeException) outcome;
+            if (outcome instanceof Error) throw (Error) outcome;
+            throw new IllegalStateException((Throwable) outcome);
+        } else {
+            next = outcome;
+            hasNext = true;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<generator>";
+    }
+}
@@ -1,9 +1,12 @@
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
 
 public class LoxInstance {
     private final LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    // Field names are interned by the SymbolTable, so identity lookups are enough
+    private final Map<String, Object> fields = new IdentityHashMap<>(8);
+    // Tells a Fork whether this instance predates it
+    final int epoch = Fork.currentEpoch();
 
     public LoxInstance(LoxClass klass) {
         this.klass = klass;
@@ -13,24 +16,36 @@ public class LoxInstance {
         return klass;
     }
 
-    public Object get(Token name) {
-       if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
+    Map<String, Object> getFields() {
+        return fields;
+    }
+
+    // Field access locks the instance, so tasks on other threads that share it
+    // see each other's writes and never catch the field map mid-update
+    public synchronized Object get(String name, int position) {
+        return get(name, position, fields);
+    }
+
+    // Looks the name up in fields, which are this instance's own or a fork's
+    // copy of them. position is where it is read, for the error if it is missing.
+    Object get(String name, int position, Map<String, Object> fields) {
+       if (fields.containsKey(name)) {
+            return fields.get(name);
         }
 
-        LoxFunction method = klass.findMethod(name.lexeme);
+        LoxFunction method = klass.findMethod(name);
         if (method != null) {
             return method.bind(this); // Bind the method to this instance
         }
     
-        throw new RuntimeError(null, "Undefined property '" + name + "'.");
+        throw new RuntimeError(position, "Undefined property '" + name + "'.");
     }
     
 
     
 
-    public void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+    public synchronized void set(String name, Object value) {
+        fields.put(name, value);
     }
 
     @Override
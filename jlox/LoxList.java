@@ -0,0 +1,46 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// A growable list of Lox values, made by list() and the parallel natives.
+// Like an instance's fields, its elements may be touched by spawned tasks,
+// so every access holds the list's lock.
+public class LoxList {
+    private final List<Object> elements;
+    // Tells a Fork whether this list predates it
+    final int epoch = Fork.currentEpoch();
+
+    LoxList() {
+        this.elements = new ArrayList<>();
+    }
+
+    private LoxList(List<Object> elements) {
+        this.elements = elements;
+    }
+
+    static LoxList of(Object[] values) {
+        return new LoxList(new ArrayList<>(Arrays.asList(values)));
+    }
+
+    synchronized void add(Object value) {
+        elements.add(value);
+    }
+
+    synchronized Object get(int index) {
+        return elements.get(index);
+    }
+
+    synchronized int size() {
+        return elements.size();
+    }
+
+    // A list of its own for a fork to write to
+    synchronized LoxList copy() {
+        return new LoxList(new ArrayList<>(elements));
+    }
+
+    // A copy workers can read without taking the lock
+    synchronized Object[] toArray() {
+        return elements.toArray();
+    }
+}
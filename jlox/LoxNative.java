@@ -0,0 +1,68 @@
+// Base class for functions implemented in Java and exposed as Lox globals
+public abstract class LoxNative implements LoxCallable {
+    private final String name;
+    private final int arity;
+
+    public LoxNative(String name, int arity) {
+        this.name = name;
+        this.arity = arity;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // Natives override the callN of their arity; the caller has already checked the count
+    @Override
+    public final Object call(Interpreter interpreter, Object[] arguments) {
+        switch (arguments.length) {
+            case 0: return call0(interpreter);
+            case 1: return call1(interpreter, arguments[0]);
+            case 2: return call2(interpreter, arguments[0], arguments[1]);
+            case 3: return call3(interpreter, arguments[0], arguments[1], arguments[2]);
+            case 4: return call4(interpreter, arguments[0], arguments[1], arguments[2], arguments[3]);
+            default: throw new IllegalStateException("Native " + name + " takes at most 4 arguments.");
+        }
+    }
+
+    // A native that doesn't override the callN of its arity would otherwise
+    // bounce between call and the default callN forever
+    @Override
+    public Object call0(Interpreter interpreter) {
+        throw missing(0);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        throw missing(1);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        throw missing(2);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        throw missing(3);
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        throw missing(4);
+    }
+
+    private IllegalStateException missing(int count) {
+        return new IllegalStateException("Native " + name + " has no call" + count + ".");
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn " + name + ">";
+    }
+}
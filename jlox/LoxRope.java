@@ -0,0 +1,105 @@
+// A Lox string built by concatenation. Ropes that grow from the same value
+// share one StringBuilder: each rope is a prefix of it, and appending to the
+// rope that owns the whole buffer extends it in place. A loop doing
+// `s = s + piece` therefore copies each piece once instead of the whole
+// string every time. The flat String is only built when something needs it.
+public final class LoxRope implements CharSequence {
+    // Shorter results are cheaper as plain strings
+    private static final int MIN_ROPE_LENGTH = 64;
+
+    private final StringBuilder buffer;
+    private final int length;
+    private String flat;
+
+    private LoxRope(StringBuilder buffer, int length) {
+        this.buffer = buffer;
+        this.length = length;
+    }
+
+    static boolean isString(Object value) {
+        return value instanceof String || value instanceof LoxRope;
+    }
+
+    // Turns a rope back into a plain String; other values pass through
+    static Object flatten(Object value) {
+        if (value instanceof LoxRope) {
+            return value.toString();
+        }
+        return value;
+    }
+
+    static Object concat(Object left, Object right) {
+        String tail = right.toString();
+        if (left instanceof LoxRope) {
+            return ((LoxRope) left).append(tail);
+        }
+
+        String head = (String) left;
+        int length = head.length() + tail.length();
+        if (length < MIN_ROPE_LENGTH) {
+            return head + tail;
+        }
+        StringBuilder buffer = new StringBuilder(length * 2);
+        buffer.append(head).append(tail);
+        return new LoxRope(buffer, length);
+    }
+
+    private LoxRope append(String tail) {
+        synchronized (buffer) {
+            if (buffer.length() == length) {
+                buffer.append(tail);
+                return new LoxRope(buffer, buffer.length());
+            }
+        }
+
+        // Someone already extended this buffer past our end, so start a new one
+        StringBuilder copy = new StringBuilder((length + tail.length()) * 2);
+        copy.append(toString()).append(tail);
+        return new LoxRope(copy, copy.length());
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        synchronized (buffer) {
+            return buffer.charAt(index);
+        }
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        String text = flat;
+        if (text == null) {
+            synchronized (buffer) {
+                text = buffer.substring(0, length);
+            }
+            flat = text;
+        }
+        return text;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other instanceof LoxRope) {
+            return toString().equals(other.toString());
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
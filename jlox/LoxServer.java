@@ -0,0 +1,276 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// A resident jlox that runs scripts sent over a Unix domain socket, so short
+// runs skip JVM startup and reuse warm, JIT-compiled interpreter code and
+// LoxEngine's compiled programs. Every request runs in its own Execution.
+//
+// Both directions are a stream of frames: a type byte, a 4-byte length and
+// that many bytes of payload. A client sends one request frame, RUN_FILE with
+// an absolute path or RUN_SOURCE with the source itself. The server answers
+// with STDOUT frames as the script prints, at most one STDERR frame and a
+// final EXIT frame holding the exit code, then closes the connection.
+//
+// At most MAX_WORKERS requests run at once; past that a request is turned
+// away with exit code 75 so the client can try again. A client that hasn't
+// sent its whole request within REQUEST_TIMEOUT is disconnected, and a
+// script that runs past TIME_LIMIT, timers and all, is stopped with a
+// runtime error.
+public class LoxServer {
+    static final byte RUN_FILE = 'F';
+    static final byte RUN_SOURCE = 'S';
+    static final byte STDOUT = 'O';
+    static final byte STDERR = 'E';
+    static final byte EXIT = 'X';
+
+    private static final int MAX_REQUEST_BYTES = 64 << 20;
+    private static final int MAX_WORKERS = 64;
+    private static final Duration TIME_LIMIT = Duration.ofSeconds(60);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+
+    private final LoxEngine engine = new LoxEngine();
+    private final ExecutorService workers =
+            new ThreadPoolExecutor(0, MAX_WORKERS, 60, TimeUnit.SECONDS, new SynchronousQueue<>());
+
+    static void serve(Path socket) throws IOException {
+        if (Files.exists(socket)) {
+            boolean listening;
+            try {
+                SocketChannel probe = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+                probe.close();
+                listening = true;
+            } catch (IOException e) {
+                listening = false;
+            }
+            if (listening) {
+                throw new IOException("A server is already listening on " + socket + ".");
+            }
+            Files.delete(socket); // Left behind by a server that died
+        }
+
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                Files.deleteIfExists(socket);
+            } catch (IOException e) {
+                // Nothing left to do on the way out
+            }
+        }));
+        System.err.println("jlox server listening on " + socket);
+
+        LoxServer loxServer = new LoxServer();
+        for (;;) {
+            SocketChannel client = server.accept();
+            try {
+                loxServer.workers.execute(() -> loxServer.handle(client));
+            } catch (RejectedExecutionException e) {
+                refuse(client);
+            }
+        }
+    }
+
+    private static void refuse(SocketChannel client) {
+        try (SocketChannel channel = client) {
+            writeFrame(channel, STDERR, "Server is busy.\n".getBytes(StandardCharsets.UTF_8));
+            writeExit(channel, 75);
+        } catch (IOException e) {
+            // The client went away; there is nobody left to tell
+        }
+    }
+
+    private void handle(SocketChannel client) {
+        try (SocketChannel channel = client) {
+            try {
+                respond(channel);
+            } catch (IOException | UncheckedIOException e) {
+                // The client went away; there is nobody left to tell
+            } catch (Throwable e) {
+                // A failure inside the interpreter, like a stack overflow or a
+                // division by zero, ends this request only
+                writeFrame(channel, STDERR, ("Script failed: " + e + "\n").getBytes(StandardCharsets.UTF_8));
+                writeExit(channel, 70);
+            }
+        } catch (IOException e) {
+            // The client went away; there is nobody left to tell
+        }
+    }
+
+    private void respond(SocketChannel channel) throws IOException {
+        long deadline = System.nanoTime() + REQUEST_TIMEOUT.toNanos();
+        ByteBuffer header = readRequest(channel, 5, deadline);
+        byte type = header.get();
+        int length = header.getInt();
+        if (length > MAX_REQUEST_BYTES) {
+            writeFrame(channel, STDERR, "Request is too large.\n".getBytes(StandardCharsets.UTF_8));
+            writeExit(channel, 64);
+            return;
+        }
+        byte[] payload = readRequest(channel, length, deadline).array();
+
+        Path script = null;
+        byte[] source = payload;
+        if (type == RUN_FILE) {
+            script = Paths.get(new String(payload, StandardCharsets.UTF_8));
+            try {
+                source = Files.readAllBytes(script);
+            } catch (IOException e) {
+                writeFrame(channel, STDERR, ("Could not read file: " + e.getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+                writeExit(channel, 66);
+                return;
+            }
+        } else if (type != RUN_SOURCE) {
+            return;
+        }
+
+        ChannelOutput output = new ChannelOutput(new FrameChannel(channel, STDOUT), StandardCharsets.UTF_8);
+        Execution execution = engine.run(engine.compile(source), script, output, TIME_LIMIT);
+        output.flush();
+        String errors = execution.getErrors();
+        if (!errors.isEmpty()) {
+            writeFrame(channel, STDERR, errors.getBytes(StandardCharsets.UTF_8));
+        }
+        writeExit(channel, execution.getStatus());
+    }
+
+    // Runs script on the server at socket, copying its output here; returns the exit code
+    static int request(Path socket, String script) {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            if (script.equals("-")) {
+                writeFrame(channel, RUN_SOURCE, System.in.readAllBytes());
+            } else {
+                String path = Paths.get(script).toAbsolutePath().normalize().toString();
+                writeFrame(channel, RUN_FILE, path.getBytes(StandardCharsets.UTF_8));
+            }
+
+            for (;;) {
+                ByteBuffer header = readFully(channel, 5);
+                byte type = header.get();
+                byte[] payload = readFully(channel, header.getInt()).array();
+                if (type == STDOUT) {
+                    System.out.write(payload, 0, payload.length);
+                } else if (type == STDERR) {
+                    System.out.flush();
+                    System.err.write(payload, 0, payload.length);
+                } else if (type == EXIT) {
+                    System.out.flush();
+                    System.err.flush();
+                    return ByteBuffer.wrap(payload).getInt();
+                }
+            }
+        } catch (IOException e) {
+            System.out.flush();
+            System.err.println("Could not reach jlox server: " + e.getMessage());
+            return 69;
+        }
+    }
+
+    private static ByteBuffer readFully(SocketChannel channel, int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("Bad frame length.");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Connection closed.");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    // Like readFully, but throws once System.nanoTime() passes deadline. The
+    // channel is only non-blocking while this reads; replies are written blocking.
+    private static ByteBuffer readRequest(SocketChannel channel, int length, long deadline) throws IOException {
+        if (length < 0) {
+            throw new IOException("Bad frame length.");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        channel.configureBlocking(false);
+        try (Selector selector = Selector.open()) {
+            channel.register(selector, SelectionKey.OP_READ);
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    throw new IOException("Connection closed.");
+                }
+                if (read == 0) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) {
+                        throw new IOException("Timed out waiting for the request.");
+                    }
+                    selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(left)));
+                }
+            }
+        }
+        // Closing the selector deregistered the channel, which blocking mode requires
+        channel.configureBlocking(true);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void writeExit(SocketChannel channel, int status) throws IOException {
+        writeFrame(channel, EXIT, ByteBuffer.allocate(4).putInt(status).array());
+    }
+
+    private static void writeFrame(WritableByteChannel channel, byte type, byte[] payload) throws IOException {
+        writeFrame(channel, type, ByteBuffer.wrap(payload));
+    }
+
+    private static void writeFrame(WritableByteChannel channel, byte type, ByteBuffer payload) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(5).put(type).putInt(payload.remaining());
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        while (payload.hasRemaining()) {
+            channel.write(payload);
+        }
+    }
+
+    // Sends everything written to it as frames of one type
+    private static final class FrameChannel implements WritableByteChannel {
+        private final SocketChannel channel;
+        private final byte type;
+
+        FrameChannel(SocketChannel channel, byte type) {
+            this.channel = channel;
+            this.type = type;
+        }
+
+        @Override
+        public int write(ByteBuffer bytes) throws IOException {
+            int length = bytes.remaining();
+            writeFrame(channel, type, bytes);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() {
+            // The connection is closed by the server once the request is done
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// The handle spawn() returns for a function running on another thread. join()
+// waits for it and gives back what the function returned, or raises the
+// runtime error that stopped it.
+//
+// Tasks run on virtual threads when the JVM has them, so a script can keep a
+// great many, 100k and more, blocked on channels at once. Older JVMs start a
+// platform thread for every task that is running, reusing idle ones, so no
+// task ever waits for one that is blocked to finish. Platform threads are
+// costly, so at most MAX_PLATFORM_TASKS of those run at once, and spawn()
+// raises a runtime error past that.
+public class LoxTask {
+    private static final int MAX_PLATFORM_TASKS = 10_000;
+    private static final ExecutorService virtual = virtualThreads();
+    private static final ExecutorService threads = virtual != null ? virtual : platformThreads();
+    // Tasks started on platform threads and not yet finished
+    private static final AtomicInteger running = new AtomicInteger();
+
+    private final Future<Object> result;
+
+    private LoxTask(Future<Object> result) {
+        this.result = result;
+    }
+
+    private static ExecutorService platformThreads() {
+        // Its threads are daemons, so like virtual threads tasks don't keep the JVM alive
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "lox-task");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // An executor that starts a virtual thread per task, or null before Java 21
+    static ExecutorService virtualThreads() {
+        try {
+            // Looked up by name so the code still builds on 17
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    // Runs function on its own thread, in the given interpreter
+    static LoxTask start(Interpreter interpreter, LoxCallable function, Runnable done) {
+        if (virtual == null && running.incrementAndGet() > MAX_PLATFORM_TASKS) {
+            running.decrementAndGet();
+            done.run();
+            throw new RuntimeError("Can't run more than " + MAX_PLATFORM_TASKS
+                    + " tasks at once before Java 21.");
+        }
+        try {
+            return new LoxTask(threads.submit(() -> {
+                try {
+                    return function.call0(interpreter);
+                } finally {
+                    if (virtual == null) running.decrementAndGet();
+                    done.run();
+                }
+            }));
+        } catch (OutOfMemoryError e) {
+            // The system may refuse a thread even below the cap
+            if (virtual == null) running.decrementAndGet();
+            done.run();
+            throw new RuntimeError("Too many tasks running to spawn another.");
+        }
+    }
+
+    // Waits no longer than the joining interpreter's time limit allows
+    Object join(Interpreter interpreter) {
+        try {
+            for (;;) {
+                long left = interpreter.timeLeft();
+                try {
+                    return left == Long.MAX_VALUE ? result.get() : result.get(left, TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    // timeLeft() raises the time limit error on the next pass
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeError("Interrupted while joining a task.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<task>";
+    }
+}
@@ -0,0 +1,33 @@
+// Collects printed text in memory so embedders can capture a program's output
+public class MemoryOutput implements OutputSink {
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final StringBuilder text = new StringBuilder();
+
+    @Override
+    public synchronized void write(CharSequence chars) {
+        text.append(chars);
+    }
+
+    @Override
+    public synchronized void write(char[] chars, int offset, int length) {
+        text.append(chars, offset, length);
+    }
+
+    @Override
+    public synchronized void newline() {
+        text.append(LINE_SEPARATOR);
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    public synchronized String contents() {
+        return text.toString();
+    }
+
+    public synchronized void reset() {
+        text.setLength(0);
+    }
+}
@@ -0,0 +1,257 @@
+import java.nio.ByteBuffer;
+import java.util.List;
+
+// Measures what the program being run keeps alive, for --mem-report. The
+// script is compiled once, in full as --validate does, and the heap in use is
+// taken, after a collection, before compiling, once it is compiled with the
+// tokens still held, and once they are let go. What is left is the AST, which
+// keeps symbol ids and source offsets instead of Tokens, and the source's line
+// table. The same statements are then run, and the report printed after.
+public class MemoryReport implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private int nodes = 0;
+    private int unbuiltBodies = 0;
+    private int tokensBuilt = 0;
+    private int lines = 0;
+    private long baseline = 0;
+    private long frontEndBytes = 0;
+    private long programBytes = 0;
+    private LineTable table;
+
+    // Errors are left in errors for the caller to report
+    List<Stmt> compile(ByteBuffer source, ErrorLog errors) {
+        baseline = usedHeap();
+        TokenBuffer tokens = new ByteScanner(source).tokens();
+        List<Stmt> statements = Lox.compileHoldingTokens(tokens, errors);
+        frontEndBytes = usedHeap() - baseline;
+        tokensBuilt = tokens.built();
+        tokens.discard();
+        programBytes = usedHeap() - baseline;
+
+        table = tokens.lines();
+        lines = table.starts().length + 1;
+        add(statements);
+        return statements;
+    }
+
+    // The line table of the source compile() was given
+    LineTable lines() {
+        return table;
+    }
+
+    private void add(Stmt stmt) {
+        if (stmt != null) {
+            nodes++;
+            stmt.accept(this);
+        }
+    }
+
+    private void add(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            add(statement);
+        }
+    }
+
+    private void add(Expr expr) {
+        if (expr != null) {
+            nodes++;
+            expr.accept(this);
+        }
+    }
+
+    void print() {
+        System.err.println("Memory report:");
+        System.err.println("  AST nodes:        " + nodes);
+        System.err.println("  Unbuilt bodies:   " + unbuiltBodies);
+        System.err.println("  Symbols:          " + SymbolTable.ids());
+        System.err.println("  Tokens built:     " + tokensBuilt);
+        System.err.println("  Source lines:     " + lines);
+        System.err.println("  Program heap:     " + kilobytes(frontEndBytes) + " with the tokens, "
+                + kilobytes(programBytes) + " once they are released");
+        System.err.println("  Heap in use:      " + kilobytes(usedHeap() - baseline) + " more after the run");
+    }
+
+    // The serial collector leaves some garbage in place on most full
+    // collections and only compacts everything on every fourth, so four are
+    // run to be sure the figure is what is really still reachable
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // Collections can leave the heap smaller than the baseline
+    private static String kilobytes(long bytes) {
+        return (Math.max(0, bytes) / 1024) + " KB";
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        add(expr.left);
+        add(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        add(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        add(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        add(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        add(expr.left);
+        add(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        add(expr.callee);
+        for (Expr argument : expr.arguments) {
+            add(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        add(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        add(expr.object);
+        add(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        add(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        add(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableStmt(Stmt.Variable stmt) {
+        add(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        add(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        add(stmt.condition);
+        add(stmt.thenBranch);
+        add(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        add(stmt.condition);
+        add(stmt.body);
+        return null;
+    }
+
+    // Reads the body field rather than body(), so reporting never compiles anything
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        if (stmt.body == null) {
+            unbuiltBodies++;
+        } else {
+            add(stmt.body);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        add(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        add(stmt.superclass);
+        for (Stmt.Function method : stmt.methods) {
+            add(method);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitSwitchStmt(Stmt.Switch stmt) {
+        add(stmt.subject);
+        for (Stmt.Switch.Case c : stmt.cases) {
+            add(c.body);
+        }
+        if (stmt.defaultBranch != null) {
+            add(stmt.defaultBranch);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        add(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitForInStmt(Stmt.ForIn stmt) {
+        add(stmt.iterable);
+        add(stmt.body);
+        return null;
+    }
+}
@@ -0,0 +1,45 @@
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// A compiled module: the resolved statements of one file, with every function
+// body already built. One Module is shared by every interpreter that imports
+// the file, so it is never changed after compiling; each interpreter runs the
+// statements in globals of its own.
+public class Module {
+    final Path path;
+    // When the file was compiled, to notice that it has changed since
+    final FileTime modified;
+    // Null if the file could not be read
+    final List<Stmt> statements;
+    // Of the file's source, for errors raised in its top level
+    final LineTable lines;
+    final ErrorLog errors;
+    // Names declared by the top level; importing the module defines these and
+    // nothing else, not its natives or what it imported itself
+    final List<String> exports;
+
+    Module(Path path, FileTime modified, List<Stmt> statements, LineTable lines, ErrorLog errors) {
+        this.path = path;
+        this.modified = modified;
+        this.statements = statements;
+        this.lines = lines;
+        this.errors = errors;
+        this.exports = statements == null ? new ArrayList<>() : exportsOf(statements);
+    }
+
+    private static List<String> exportsOf(List<Stmt> statements) {
+        List<String> names = new ArrayList<>();
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Variable) {
+                names.add(SymbolTable.name(((Stmt.Variable) statement).name));
+            } else if (statement instanceof Stmt.Function) {
+                names.add(SymbolTable.name(((Stmt.Function) statement).name));
+            } else if (statement instanceof Stmt.Class) {
+                names.add(SymbolTable.name(((Stmt.Class) statement).name));
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,77 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Compiles modules once per process and shares them. Compiling runs on the
+// common ForkJoinPool. As soon as a module is compiled its own imports are
+// started too, so the independent modules of a program compile concurrently
+// while the importer is still waiting on the first one. A module is compiled
+// again only when its file has changed.
+public class ModuleLoader {
+    private static final Map<Path, CompletableFuture<Module>> modules = new ConcurrentHashMap<>();
+
+    private ModuleLoader() {
+    }
+
+    static Path resolve(Path directory, String path) {
+        return directory.resolve(path).toAbsolutePath().normalize();
+    }
+
+    // Starts compiling the module unless it is already compiled or compiling
+    static CompletableFuture<Module> compile(Path path) {
+        return modules.computeIfAbsent(path, key -> CompletableFuture.supplyAsync(() -> read(key)));
+    }
+
+    // Waits for the compiled module
+    static Module load(Path path) {
+        CompletableFuture<Module> compiling = compile(path);
+        Module module = compiling.join();
+        if (module.statements == null) {
+            modules.remove(path, compiling); // Try reading it again next time
+        } else if (module.modified != null && !module.modified.equals(lastModified(path))) {
+            modules.remove(path, compiling);
+            return load(path);
+        }
+        return module;
+    }
+
+    // Starts compiling every module the statements import
+    static void prefetch(List<Stmt> statements, Path directory) {
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Import) {
+                compile(resolve(directory, ((Stmt.Import) statement).path));
+            }
+        }
+    }
+
+    private static Module read(Path path) {
+        FileTime modified = lastModified(path);
+        try (FileChannel channel = FileChannel.open(path)) {
+            ByteBuffer source = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            ErrorLog errors = new ErrorLog();
+            TokenBuffer tokens = new ByteScanner(source).tokens();
+            List<Stmt> statements = Lox.compile(tokens, errors);
+            if (errors.isEmpty()) {
+                prefetch(statements, path.getParent());
+            }
+            return new Module(path, modified, statements, tokens.lines(), errors);
+        } catch (IOException e) {
+            return new Module(path, null, null, null, null);
+        }
+    }
+
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
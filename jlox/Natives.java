@@ -0,0 +1,266 @@
+import java.nio.file.Paths;
+import java.util.List;
+
+// The functions every script's globals start with. Each is a LoxNative that
+// overrides the callN of its arity. Bad arguments are runtime errors.
+class Natives {
+    // Every native, defined once the first time a snapshot needs one
+    private static final class Table {
+        static final Enviroment natives = new Enviroment();
+
+        static {
+            define(natives);
+        }
+    }
+
+    // The native to re-bind one restored from a snapshot to; null if there is none by that name
+    static LoxNative named(String name) {
+        Enviroment.Cell cell = Table.natives.cellAt(SymbolTable.id(name));
+        return cell != null && cell.value instanceof LoxNative ? (LoxNative) cell.value : null;
+    }
+
+    // Every module gets its own globals, each with the natives defined
+    static void define(Enviroment globals) {
+        globals.define("clock", new LoxNative("clock", 0) {
+            @Override
+            public Object call0(Interpreter interpreter) {
+                interpreter.output().write("clock called");
+                interpreter.output().newline();
+                return (double) System.currentTimeMillis() / 1000.0; // Return current time in seconds
+            }
+        });
+        // fork(count, scenario) runs scenario(i) in count children, then prints their output in order
+        globals.define("fork", new LoxNative("fork", 2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object count, Object scenario) {
+                if (!(count instanceof Double) || (double) count < 0 || (double) count != Math.floor((double) count)) {
+                    throw new RuntimeError("Fork count must be a whole number.");
+                }
+                if (!(scenario instanceof LoxCallable) || ((LoxCallable) scenario).arity() != 1) {
+                    throw new RuntimeError("Fork scenario must be a function of one argument.");
+                }
+                List<Fork> children = interpreter.fork((int) (double) count, (LoxCallable) scenario);
+                for (Fork child : children) {
+                    interpreter.output().write(child.getOutput());
+                }
+                for (Fork child : children) {
+                    RuntimeError error = child.getError();
+                    if (error != null) {
+                        throw new RuntimeError(error, error.getMessage() + " (in fork " + child.getIndex() + ")");
+                    }
+                }
+                return null;
+            }
+        });
+        // spawn(fn) runs fn() on another thread; join(task) waits for it and returns its result
+        globals.define("spawn", new LoxNative("spawn", 1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object function) {
+                if (!(function instanceof LoxCallable) || ((LoxCallable) function).arity() != 0) {
+                    throw new RuntimeError("Can only spawn a function of no arguments.");
+                }
+                return interpreter.spawn((LoxCallable) function);
+            }
+        });
+        globals.define("join", new LoxNative("join", 1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object task) {
+                if (!(task instanceof LoxTask)) {
+                    throw new RuntimeError("Can only join a task.");
+                }
+                return ((LoxTask) task).join(interpreter);
+            }
+        });
+        // channel(capacity) makes a bounded channel for send, receive and close
+        globals.define("channel", new LoxNative("channel", 1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object capacity) {
+                if (!(capacity instanceof Double) || (double) capacity < 1 || (double) capacity != Math.floor((double) capacity)) {
+                    throw new RuntimeError("Channel capacity must be a whole number of at least 1.");
+                }
+                return new LoxChannel((int) (double) capacity);
+            }
+        });
+        globals.define("send", new LoxNative("send", 2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object channel, Object value) {
+                try {
+                    channelArgument(channel).send(value, interpreter);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeError("Interrupted while sending.");
+                }
+                return null;
+            }
+        });
+        globals.define("receive", new LoxNative("receive", 1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object channel) {
+                try {
+                    return channelArgument(channel).receive(interpreter);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeError("Interrupted while receiving.");
+                }
+            }
+        });
+        globals.define("close", new LoxNative("close", 1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object channel) {
+                channelArgument(channel).close();
+                return null;
+            }
+        });
+        // setTimeout(fn, ms) and setInterval(fn, ms) call fn() from the event loop and return an id for clearTimer
+        globals.define("setTimeout", new LoxNative("setTimeout", 2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object callback, Object delay) {
+                return (double) eventsOf(interpreter).setTimer(callbackArgument(callback, 0), delayArgument(delay), false);
+            }
+        });
+        globals.define("setInterval", new LoxNative("setInterval", 2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object callback, Object delay) {
+                return (double) eventsOf(interpreter).setTimer(callbackArgument(callback, 0), delayArgument(delay), true);
+            }
+        });
+        globals.define("clearTimer", new LoxNative("clearTimer", 1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object id) {
+                if (id instanceof Double) {
+                    eventsOf(interpreter).clearTimer((int) (double) id);
+                }
+                return null;
+            }
+        });
+        // readFile(path, fn) reads the file without blocking and calls fn(contents) from the event loop
+        globals.define("readFile", new LoxNative("readFile", 2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object path, Object callback) {
+                if (!LoxRope.isString(path)) {
+                    throw new RuntimeError("Path must be a string.");
+                }
+                eventsOf(interpreter).readFile(Paths.get(LoxRope.flatten(path).toString()), callbackArgument(callback, 1));
+                return null;
+            }
+        });
+        // list() makes an empty list; append, at and length work on it
+        globals.define("list", new LoxNative("list", 0) {
+            @Override
+            public Object call0(Interpreter interpreter) {
+                return new LoxList();
+            }
+        });
+        globals.define("append", new LoxNative("append", 2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object list, Object value) {
+                interpreter.writing(listArgument(list)).add(value);
+                return null;
+            }
+        });
+        globals.define("at", new LoxNative("at", 2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object list, Object index) {
+                LoxList elements = interpreter.reading(listArgument(list));
+                synchronized (elements) {
+                    return elements.get(indexArgument(index, elements.size()));
+                }
+            }
+        });
+        globals.define("length", new LoxNative("length", 1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object list) {
+                return (double) interpreter.reading(listArgument(list)).size();
+            }
+        });
+        // parallelMap(list, fn), parallelReduce(list, fn, init) and parallelFor(start, end, fn) spread the calls over every core
+        globals.define("parallelMap", new LoxNative("parallelMap", 2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object list, Object function) {
+                return Parallel.map(interpreter, listArgument(list), callbackArgument(function, 1));
+            }
+        });
+        globals.define("parallelReduce", new LoxNative("parallelReduce", 3) {
+            @Override
+            public Object call3(Interpreter interpreter, Object list, Object function, Object initial) {
+                return Parallel.reduce(interpreter, listArgument(list), callbackArgument(function, 2), initial);
+            }
+        });
+        globals.define("parallelFor", new LoxNative("parallelFor", 3) {
+            @Override
+            public Object call3(Interpreter interpreter, Object start, Object end, Object function) {
+                int from = intArgument(start, "Range start");
+                int to = intArgument(end, "Range end");
+                LoxCallable body = callbackArgument(function, 1);
+                if ((long) to - from > Integer.MAX_VALUE) {
+                    throw new RuntimeError("Range is too large.");
+                }
+                if (to > from) {
+                    Parallel.range(interpreter, from, to - from, body);
+                }
+                return null;
+            }
+        });
+    }
+
+    private static EventLoop eventsOf(Interpreter interpreter) {
+        if (interpreter.eventLoop() == null) {
+            throw new RuntimeError("Only the main script can use timers and asynchronous reads.");
+        }
+        return interpreter.eventLoop();
+    }
+
+    private static LoxCallable callbackArgument(Object value, int arity) {
+        if (!(value instanceof LoxCallable) || ((LoxCallable) value).arity() != arity) {
+            throw new RuntimeError("Callback must be a function of " + arity + (arity == 1 ? " argument." : " arguments."));
+        }
+        return (LoxCallable) value;
+    }
+
+    private static double delayArgument(Object value) {
+        if (!(value instanceof Double) || !((double) value >= 0)) {
+            throw new RuntimeError("Delay must be a number of milliseconds, not negative.");
+        }
+        return (double) value;
+    }
+
+    private static LoxList listArgument(Object value) {
+        if (!(value instanceof LoxList)) {
+            throw new RuntimeError("Expected a list.");
+        }
+        return (LoxList) value;
+    }
+
+    private static int indexArgument(Object value, int size) {
+        if (!(value instanceof Double) || (double) value != Math.floor((double) value)) {
+            throw new RuntimeError("List index must be a whole number.");
+        }
+        double index = (double) value;
+        if (index < 0 || index >= size) {
+            throw new RuntimeError("List index out of range.");
+        }
+        return (int) index;
+    }
+
+    private static double wholeArgument(Object value, String what) {
+        if (!(value instanceof Double) || (double) value != Math.floor((double) value)) {
+            throw new RuntimeError(what + " must be a whole number.");
+        }
+        return (double) value;
+    }
+
+    private static int intArgument(Object value, String what) {
+        double number = wholeArgument(value, what);
+        if (number < Integer.MIN_VALUE || number > Integer.MAX_VALUE) {
+            throw new RuntimeError(what + " must be between " + Integer.MIN_VALUE + " and " + Integer.MAX_VALUE + ".");
+        }
+        return (int) number;
+    }
+
+    private static LoxChannel channelArgument(Object value) {
+        if (!(value instanceof LoxChannel)) {
+            throw new RuntimeError("Expected a channel.");
+        }
+        return (LoxChannel) value;
+    }
+}
@@ -0,0 +1,60 @@
+// Formats Lox numbers the way stringify always has: Double.toString without
+// a trailing ".0". Output goes into a reusable char buffer, so callers that
+// can consume chars directly never build an intermediate String.
+//
+// Integral values below 10^7 (the ones Double.toString prints as "123.0")
+// are written digit by digit. Everything else is copied from Double.toString:
+// the JDK's algorithm is not shortest-round-trip on every release, and a
+// Ryu/Schubfach implementation would print different digits for some values.
+public class NumberFormatter {
+    private static final double PLAIN_LIMIT = 1e7;
+
+    private final char[] buffer = new char[32];
+
+    char[] buffer() {
+        return buffer;
+    }
+
+    // Writes the text for value at the start of the buffer and returns its length
+    int format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < PLAIN_LIMIT) {
+            return formatIntegral(value);
+        }
+
+        String text = Double.toString(value);
+        int length = text.length();
+        if (text.endsWith(".0")) {
+            length -= 2;
+        }
+        text.getChars(0, length, buffer, 0);
+        return length;
+    }
+
+    String toString(double value) {
+        return new String(buffer, 0, format(value));
+    }
+
+    private int formatIntegral(double value) {
+        int length = 0;
+        if (value < 0 || (value == 0.0 && 1.0 / value < 0)) {
+            buffer[length++] = '-';
+        }
+
+        int digits = (int) Math.abs(value);
+        int end = length + digitCount(digits);
+        for (int i = end - 1; i >= length; i--) {
+            buffer[i] = (char) ('0' + digits % 10);
+            digits /= 10;
+        }
+        return end;
+    }
+
+    private static int digitCount(int value) {
+        int count = 1;
+        while (value >= 10) {
+            value /= 10;
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,11 @@
+// Destination for everything a Lox program prints
+public interface OutputSink {
+    void write(CharSequence text);
+
+    void write(char[] chars, int offset, int length);
+
+    // Ends the current line; sinks may use this as a chance to flush
+    void newline();
+
+    void flush();
+}
@@ -0,0 +1,107 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// The work behind parallelMap, parallelReduce and parallelFor. The input is
+// cut into chunks that run on the common ForkJoinPool, each in a worker
+// interpreter of its own, and the caller waits for all of them. Workers
+// share the caller's globals and the callback's closure, and may only read
+// them: assigning to a variable, or setting a field of an instance, made
+// before the call is a runtime error. Lists are locked, so appends are safe,
+// but their order across workers is not fixed.
+//
+// Where chunks begin and end depends only on the size of the input, never on
+// the number of cores, so results come back in input order and a reduction
+// groups its values the same way on every machine. When callbacks fail, the
+// error raised is that of the first failing element.
+public class Parallel {
+    // Enough chunks to keep every core of a large machine busy
+    private static final int MAX_CHUNKS = 64;
+
+    private interface Chunk {
+        Object run(Interpreter worker, int start, int end);
+    }
+
+    // Returns fn(x) for every x in values, in order
+    static LoxList map(Interpreter interpreter, LoxList list, LoxCallable function) {
+        Object[] values = list.toArray();
+        run(interpreter, values.length, (worker, start, end) -> {
+            for (int i = start; i < end; i++) {
+                values[i] = function.call1(worker, values[i]);
+            }
+            return null;
+        });
+        return LoxList.of(values);
+    }
+
+    // Folds each chunk from initial, then folds the chunks' results in order.
+    // That only agrees with a sequential fold when function is associative
+    // and initial is its identity, as 0 is for addition.
+    static Object reduce(Interpreter interpreter, LoxList list, LoxCallable function, Object initial) {
+        Object[] values = list.toArray();
+        Object[] results = run(interpreter, values.length, (worker, start, end) -> {
+            Object accumulator = initial;
+            for (int i = start; i < end; i++) {
+                accumulator = function.call2(worker, accumulator, values[i]);
+            }
+            return accumulator;
+        });
+        if (results.length == 0) return initial;
+        Object accumulator = results[0];
+        for (int i = 1; i < results.length; i++) {
+            accumulator = function.call2(interpreter, accumulator, results[i]);
+        }
+        return accumulator;
+    }
+
+    // Calls fn(i) for every whole i from start up to but not including end
+    static void range(Interpreter interpreter, int start, int count, LoxCallable function) {
+        run(interpreter, count, (worker, from, to) -> {
+            for (int i = from; i < to; i++) {
+                function.call1(worker, (double) (start + i));
+            }
+            return null;
+        });
+    }
+
+    // Runs chunk over [0, count) in pieces and returns each piece's result in order
+    private static Object[] run(Interpreter interpreter, int count, Chunk chunk) {
+        int chunks = Math.min(count, MAX_CHUNKS);
+        Object[] results = new Object[chunks];
+        RuntimeError[] errors = new RuntimeError[chunks];
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(chunks);
+        // Everything made from here on belongs to the worker that made it
+        int epoch = Fork.nextEpoch();
+        for (int i = 0; i < chunks; i++) {
+            int index = i;
+            int start = (int) ((long) count * i / chunks);
+            int end = (int) ((long) count * (i + 1) / chunks);
+            Interpreter worker = interpreter.worker(epoch);
+            tasks.add(ForkJoinTask.adapt(() -> {
+                try {
+                    results[index] = chunk.run(worker, start, end);
+                } catch (RuntimeError error) {
+                    errors[index] = error;
+                }
+            }));
+        }
+
+        ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+
+        // A chunk stops at its first failure, so the earliest failing chunk holds the earliest failure
+        for (RuntimeError error : errors) {
+            if (error != null) {
+                String where = error.line() == 0 ? "" : " (at line " + error.line() + " in a worker)";
+                throw new RuntimeError(error.getMessage() + where);
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,68 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+// Builds the lazy bodies of top-level functions and methods on the common
+// ForkJoinPool. Once the top level is resolved, every body has its token
+// range and its resolver context, so bodies can be parsed and resolved
+// independently. Each leaf task records errors in its own ErrorLog. The logs
+// are merged in declaration order, and the caller sorts them by line.
+//
+// Only code compiled in full up front comes here: scripts run with
+// --validate, imported modules, LoxEngine programs and cache entries being
+// written. A plain run streams its top level and builds each body on the
+// thread that first calls it.
+public class ParallelCompiler extends RecursiveTask<ErrorLog> {
+    private static final long serialVersionUID = 1L;
+
+    // Below this many bodies a task compiles them itself instead of splitting
+    private static final int SEQUENTIAL_THRESHOLD = 16;
+
+    private final List<Stmt.Function> functions;
+    private final int from;
+    private final int to;
+
+    private ParallelCompiler(List<Stmt.Function> functions, int from, int to) {
+        this.functions = functions;
+        this.from = from;
+        this.to = to;
+    }
+
+    static ErrorLog compile(List<Stmt> statements) {
+        List<Stmt.Function> functions = new ArrayList<>();
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Function) {
+                functions.add((Stmt.Function) statement);
+            } else if (statement instanceof Stmt.Class) {
+                functions.addAll(((Stmt.Class) statement).methods);
+            }
+        }
+        return new ParallelCompiler(functions, 0, functions.size()).invoke();
+    }
+
+    @Override
+    protected ErrorLog compute() {
+        if (to - from <= SEQUENTIAL_THRESHOLD) {
+            ErrorLog log = ErrorLog.open();
+            try {
+                for (int i = from; i < to; i++) {
+                    Stmt.Function function = functions.get(i);
+                    if (function.lazyBody != null) {
+                        function.lazyBody.compileQuietly(function);
+                    }
+                }
+            } finally {
+                log.close();
+            }
+            return log;
+        }
+
+        int middle = (from + to) >>> 1;
+        ParallelCompiler left = new ParallelCompiler(functions, from, middle);
+        left.fork();
+        ErrorLog right = new ParallelCompiler(functions, middle, to).compute();
+        ErrorLog log = left.join();
+        log.addAll(right);
+        return log;
+    }
+}
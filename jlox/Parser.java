@@ -6,11 +6,17 @@ public class Parser {
     private static class ParseError extends RuntimeException {
     }
 
-    private final List<Token> tokens;
+    private final TokenBuffer tokens;
+    private final boolean lazyBodies;
     private int current = 0;
+    private int nesting = 0;
+    private boolean hadError = false;
 
-    public Parser(List<Token> tokens) {
+    // With lazyBodies, the bodies of top-level functions and methods are only
+    // brace-matched here and parsed the first time they are called
+    public Parser(TokenBuffer tokens, boolean lazyBodies) {
         this.tokens = tokens;
+        this.lazyBodies = lazyBodies && tokens.source() != null;
     }
 
     List<Stmt> parse() {
@@ -21,18 +27,62 @@ public class Parser {
         return statements;
     }
 
+    boolean hasNext() {
+        return !isAtEnd();
+    }
+
+    // Parses one top-level declaration (null if it had a syntax error) and
+    // releases its tokens, so a program can be run as it is parsed
+    Stmt next() {
+        Stmt statement = declaration();
+        tokens.release(current);
+        return statement;
+    }
+
+    boolean hadError() {
+        return hadError;
+    }
+
+    // Parses a lazily skipped function body, starting just after its '{'
+    List<Stmt> functionBody() {
+        nesting++;
+        try {
+            List<Stmt> body = block();
+            if (!isAtEnd()) {
+                error(peek(), "Expect end of function body.");
+            }
+            return body;
+        } catch (ParseError error) {
+            return null;
+        }
+    }
+
     private Stmt declaration() {
+        nesting++;
         try {
             if (match(TokenType.CLASS)) return classDeclaration();
             if (match(TokenType.FUN)) return function("function");
             if (match(TokenType.VAR)) return variableDeclaration();
+            if (match(TokenType.IMPORT)) return importDeclaration();
             return statement();
         } catch (ParseError error) {
             synchronize();
             return null; // or a placeholder statement
+        } finally {
+            nesting--;
         }
     }
 
+    private Stmt.Import importDeclaration() {
+        Token keyword = previous();
+        if (nesting > 1) {
+            error(keyword, "Import must be at the top level.");
+        }
+        Token path = consume(TokenType.STRING, "Expect module path after 'import'.");
+        consume(TokenType.SEMICOLON, "Expect ';' after module path.");
+        return new Stmt.Import(keyword.offset, (String) path.literal);
+    }
+
     private Stmt.Class classDeclaration() {
         Token name = consume(TokenType.IDENTIFIER, "Expect class name.");
         Expr.Variable superclass = null;
@@ -69,8 +119,31 @@ public class Parser {
         consume(TokenType.RIGHT_PAREN, "Expect ')' after parameters.");
 
         consume(TokenType.LEFT_BRACE, "Expect '{' before " + kind + " body.");
+        if (lazyBodies && nesting == 1) {
+            return new Stmt.Function(name, parameters, tokens.lines(), skipBody());
+        }
         List<Stmt> body = block();
-        return new Stmt.Function(name, parameters, body);
+        return new Stmt.Function(name, parameters, tokens.lines(), body);
+    }
+
+    // Pre-parse: find the matching '}' by counting braces and remember where
+    // the body is, without building any of it
+    private LazyBody skipBody() {
+        int open = current - 1;
+        int depth = 1;
+        while (!isAtEnd()) {
+            TokenType type = tokens.type(current);
+            if (type == TokenType.LEFT_BRACE) {
+                depth++;
+            } else if (type == TokenType.RIGHT_BRACE && --depth == 0) {
+                break;
+            }
+            advance();
+        }
+        consume(TokenType.RIGHT_BRACE, "Expect '}' after block.");
+        int start = tokens.start(open) + 1;
+        int end = tokens.start(current - 1) + 1;
+        return new LazyBody(tokens.source(), start, end, tokens.line(open));
     }
 
     private Stmt.Variable variableDeclaration() {
@@ -93,6 +166,9 @@ public class Parser {
         if(match(TokenType.RETURN)) {
            return returnStatement();
         }
+        if (match(TokenType.YIELD)) {
+            return yieldStatement();
+        }
         if(match(TokenType.LEFT_BRACE)) {
             return new Stmt.Block(block());
         }
@@ -103,9 +179,67 @@ public class Parser {
         if (match(TokenType.FOR)) {
             return forStatement();
         }
+        if (match(TokenType.SWITCH)) {
+            return switchStatement();
+        }
         return expressionStatement();
     }
 
+    private Stmt.Switch switchStatement() {
+        Token keyword = previous();
+        consume(TokenType.LEFT_PAREN, "Expect '(' after 'switch'.");
+        Expr subject = expression();
+        consume(TokenType.RIGHT_PAREN, "Expect ')' after switch value.");
+        consume(TokenType.LEFT_BRACE, "Expect '{' before switch body.");
+
+        List<Stmt.Switch.Case> cases = new ArrayList<>();
+        List<Stmt> defaultBranch = null;
+        while (!check(TokenType.RIGHT_BRACE) && !isAtEnd()) {
+            if (match(TokenType.CASE)) {
+                Token caseKeyword = previous();
+                List<Object> labels = new ArrayList<>();
+                do {
+                    labels.add(caseLabel());
+                } while (match(TokenType.COMMA));
+                consume(TokenType.COLON, "Expect ':' after case label.");
+                cases.add(new Stmt.Switch.Case(caseKeyword.offset, labels, caseBody()));
+            } else if (match(TokenType.DEFAULT)) {
+                if (defaultBranch != null) {
+                    error(previous(), "Switch can only have one default branch.");
+                }
+                consume(TokenType.COLON, "Expect ':' after 'default'.");
+                defaultBranch = caseBody();
+            } else {
+                throw error(peek(), "Expect 'case' or 'default' in switch body.");
+            }
+        }
+        consume(TokenType.RIGHT_BRACE, "Expect '}' after switch body.");
+        return new Stmt.Switch(keyword.offset, subject, cases, defaultBranch);
+    }
+
+    // Case labels must be constants so the Resolver can build a jump table
+    private Object caseLabel() {
+        if (match(TokenType.FALSE)) return false;
+        if (match(TokenType.TRUE)) return true;
+        if (match(TokenType.NIL)) return null;
+        if (match(TokenType.NUMBER) || match(TokenType.STRING)) return previous().literal;
+        if (match(TokenType.MINUS)) {
+            Token number = consume(TokenType.NUMBER, "Expect constant case label.");
+            return -(double) number.literal;
+        }
+        throw error(peek(), "Expect constant case label.");
+    }
+
+    // A case body runs until the next label; there is no fallthrough
+    private List<Stmt> caseBody() {
+        List<Stmt> statements = new ArrayList<>();
+        while (!check(TokenType.CASE) && !check(TokenType.DEFAULT)
+                && !check(TokenType.RIGHT_BRACE) && !isAtEnd()) {
+            statements.add(declaration());
+        }
+        return statements;
+    }
+
     private Stmt.Return returnStatement() {
         Token keyword = previous();
         Expr value = null;
@@ -113,11 +247,24 @@ public class Parser {
             value = expression();
         }
         consume(TokenType.SEMICOLON, "Expect ';' after return value.");
-        return new Stmt.Return(keyword, value);
+        return new Stmt.Return(keyword.offset, value);
+    }
+
+    private Stmt.Yield yieldStatement() {
+        Token keyword = previous();
+        Expr value = null;
+        if (!check(TokenType.SEMICOLON)) {
+            value = expression();
+        }
+        consume(TokenType.SEMICOLON, "Expect ';' after yield value.");
+        return new Stmt.Yield(keyword.offset, value);
     }
 
     private Stmt forStatement() {
         consume(TokenType.LEFT_PAREN, "Expect '(' after 'for'.");
+        if (check(TokenType.IDENTIFIER) && tokens.type(current + 1) == TokenType.IN) {
+            return forInStatement();
+        }
 
         Stmt initializer;
         if (match(TokenType.VAR)) {
@@ -157,6 +304,14 @@ public class Parser {
         return body;
     }
 
+    private Stmt.ForIn forInStatement() {
+        Token name = consume(TokenType.IDENTIFIER, "Expect loop variable name.");
+        consume(TokenType.IN, "Expect 'in' after loop variable.");
+        Expr iterable = expression();
+        consume(TokenType.RIGHT_PAREN, "Expect ')' after for clauses.");
+        return new Stmt.ForIn(name, iterable, statement());
+    }
+
     private Stmt.While whileStatement() {
         consume(TokenType.LEFT_PAREN, "Expect '(' after 'while'.");
         Expr condition = expression();
@@ -201,23 +356,46 @@ public class Parser {
         return statements;
     }
 
-    private Expr expression() {
-        return assignment();
+    // Expressions are parsed by precedence climbing: one loop handles every
+    // binary operator, driven by this table instead of a method per level
+    private static final int PREC_NONE = 0;
+    private static final int PREC_OR = 1;
+    private static final int PREC_AND = 2;
+    private static final int PREC_EQUALITY = 3;
+    private static final int PREC_COMPARISON = 4;
+    private static final int PREC_TERM = 5;
+    private static final int PREC_FACTOR = 6;
+
+    private static final int[] precedence = new int[TokenType.values().length];
+
+    static {
+        precedence[TokenType.OR.ordinal()] = PREC_OR;
+        precedence[TokenType.AND.ordinal()] = PREC_AND;
+        precedence[TokenType.EQUAL_EQUAL.ordinal()] = PREC_EQUALITY;
+        precedence[TokenType.BANG_EQUAL.ordinal()] = PREC_EQUALITY;
+        precedence[TokenType.GREATER.ordinal()] = PREC_COMPARISON;
+        precedence[TokenType.GREATER_EQUAL.ordinal()] = PREC_COMPARISON;
+        precedence[TokenType.LESS.ordinal()] = PREC_COMPARISON;
+        precedence[TokenType.LESS_EQUAL.ordinal()] = PREC_COMPARISON;
+        precedence[TokenType.PLUS.ordinal()] = PREC_TERM;
+        precedence[TokenType.MINUS.ordinal()] = PREC_TERM;
+        precedence[TokenType.STAR.ordinal()] = PREC_FACTOR;
+        precedence[TokenType.SLASH.ordinal()] = PREC_FACTOR;
     }
 
-    private Expr assignment() {
-        Expr expr = or();
+    private Expr expression() {
+        Expr expr = binary(PREC_OR);
 
         if (match(TokenType.EQUAL)) {
             Token equals = previous();
-            Expr value = assignment();
+            Expr value = expression();
             if (expr instanceof Expr.Variable) {
-                Token name = ((Expr.Variable) expr).name;
-                return new Expr.Assign(name, value);
+                Expr.Variable variable = (Expr.Variable) expr;
+                return new Expr.Assign(variable.name, variable.position, value);
             }
             else if (expr instanceof Expr.Get) {
                 Expr.Get get = (Expr.Get) expr;
-                return new Expr.Set(get.object, get.name, value);
+                return new Expr.Set(get.object, get.name, get.position, value);
             }
             error(equals, "Invalid assignment target.");
         }
@@ -225,89 +403,36 @@ public class Parser {
         return expr;
     }
 
-    private Expr or() {
-        Expr expr = and();
-
-        while (match(TokenType.OR)) {
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr and() {
-        Expr expr = equality();
-
-        while (match(TokenType.AND)) {
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr equality() {
-        Expr expr = comparison();
-
-        while (match(TokenType.EQUAL_EQUAL, TokenType.BANG_EQUAL)) {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr comparison() {
-        Expr expr = addition();
-
-        while (match(TokenType.GREATER, TokenType.GREATER_EQUAL, TokenType.LESS, TokenType.LESS_EQUAL)) {
-            Token operator = previous();
-            Expr right = addition();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr addition() {
-        Expr expr = multiplication();
-
-        while (match(TokenType.PLUS, TokenType.MINUS)) {
-            Token operator = previous();
-            Expr right = multiplication();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr multiplication() {
+    // Parses operators binding at least as tightly as minPrecedence. Right
+    // operands climb one level higher, which keeps every operator left-associative.
+    private Expr binary(int minPrecedence) {
         Expr expr = unary();
 
-        while (match(TokenType.STAR, TokenType.SLASH)) {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
-        }
+        while (true) {
+            TokenType type = tokens.type(current);
+            int operatorPrecedence = precedence[type.ordinal()];
+            if (operatorPrecedence == PREC_NONE || operatorPrecedence < minPrecedence) {
+                return expr;
+            }
 
-        return expr;
+            int position = tokens.start(current);
+            advance();
+            Expr right = binary(operatorPrecedence + 1);
+            if (type == TokenType.OR || type == TokenType.AND) {
+                expr = new Expr.Logical(expr, type, right);
+            } else {
+                expr = new Expr.Binary(expr, type, position, right);
+            }
+        }
     }
 
     private Expr unary() {
-        if (match(TokenType.BANG, TokenType.MINUS)) {
+        if (match(TokenType.BANG) || match(TokenType.MINUS)) {
             Token operator = previous();
             Expr right = unary();
             return new Expr.Unary(operator, right);
         }
 
-        return call();
-    }
-
-    private Expr call() {
         Expr expr = primary();
 
         while (true) {
@@ -348,7 +473,7 @@ public class Parser {
         if (match(TokenType.NIL))
             return new Expr.Literal(null);
 
-        if (match(TokenType.NUMBER, TokenType.STRING)) {
+        if (match(TokenType.NUMBER) || match(TokenType.STRING)) {
             return new Expr.Literal(previous().literal);
         }
 
@@ -365,7 +490,7 @@ public class Parser {
         }
 
         if(match(TokenType.THIS)) {
-            return new Expr.This(previous());
+            return new Expr.This(previous().offset);
         }
 
         if (match(TokenType.LEFT_PAREN)) {
@@ -377,41 +502,41 @@ public class Parser {
         throw error(peek(), "Expect expression.");
     }
 
-    private boolean match(TokenType... types) {
-        for (TokenType type : types) {
-            if (check(type)) {
-                advance();
-                return true;
-            }
+    private boolean match(TokenType type) {
+        if (check(type)) {
+            advance();
+            return true;
         }
         return false;
     }
 
+    // Lookahead only reads token types; Token objects are built by peek() and
+    // previous() when the parser actually keeps or reports a token
     private boolean check(TokenType type) {
         if (isAtEnd())
             return false;
-        return peek().type == type;
+        return tokens.type(current) == type;
     }
 
-    private Token advance() {
+    private void advance() {
         if (!isAtEnd())
             current++;
-        return previous();
     }
 
     private boolean isAtEnd() {
-        return peek().type == TokenType.EOF;
+        return tokens.type(current) == TokenType.EOF;
     }
 
     private Token peek() {
-        return tokens.get(current);
+        return tokens.token(current);
     }
 
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.token(current - 1);
     }
 
     private ParseError error(Token token, String message) {
+        hadError = true;
         Lox.error(token, message);
         return new ParseError();
     }
@@ -420,10 +545,10 @@ public class Parser {
         advance();
 
         while (!isAtEnd()) {
-            if (previous().type == TokenType.SEMICOLON)
+            if (tokens.type(current - 1) == TokenType.SEMICOLON)
                 return;
 
-            switch (peek().type) {
+            switch (tokens.type(current)) {
                 case CLASS:
                 case FUN:
                 case VAR:
@@ -432,6 +557,9 @@ public class Parser {
                 case WHILE:
                 case PRINT:
                 case RETURN:
+                case SWITCH:
+                case IMPORT:
+                case YIELD:
                     return;
             }
 
@@ -441,7 +569,8 @@ public class Parser {
 
     private Token consume(TokenType type, String message) {
         if (check(type)) {
-            return advance();
+            advance();
+            return previous();
         }
         throw error(peek(), message);
     }
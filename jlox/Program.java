@@ -0,0 +1,22 @@
+import java.util.Collections;
+import java.util.List;
+
+// A compiled program as LoxEngine hands it out: the resolved statements with
+// every function body built, or the errors that stopped it compiling. Nothing
+// in it changes once it is compiled, so any number of executions can run it
+// at once.
+public final class Program {
+    final List<Stmt> statements;
+    final LineTable lines;
+    final ErrorLog errors;
+
+    Program(List<Stmt> statements, LineTable lines, ErrorLog errors) {
+        this.statements = Collections.unmodifiableList(statements);
+        this.lines = lines;
+        this.errors = errors;
+    }
+
+    public boolean hasErrors() {
+        return !errors.isEmpty();
+    }
+}
@@ -0,0 +1,113 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Stores resolved programs as .loxc files so later runs can skip scanning,
+// parsing and resolving. A cache file starts with a magic number, the format
+// version, the SHA-256 of the source it was built from and a CRC32 of the
+// encoded program; anything that does not match is ignored and rebuilt.
+// Function bodies are only decoded when first called, long after the file
+// was loaded, so the checksum is what keeps a damaged entry from failing
+// halfway through a run. The cache is best effort: failing to read or write
+// it never stops a script from running.
+public class ProgramCache {
+    private static final int MAGIC = 0x4C4F5843; // "LOXC"
+    static final int FORMAT_VERSION = 4;
+    private static final int HASH_LENGTH = 32;
+    private static final int HEADER_LENGTH = 12 + HASH_LENGTH;
+
+    private ProgramCache() {
+    }
+
+    // Next to the script as "name.loxc", or in cacheDir named by content hash
+    static Path pathFor(Path script, Path cacheDir, byte[] hash) {
+        if (cacheDir == null) {
+            return script.resolveSibling(script.getFileName() + "c");
+        }
+        return cacheDir.resolve(hex(hash) + ".loxc");
+    }
+
+    static String hex(byte[] hash) {
+        StringBuilder text = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            text.append(String.format("%02x", b));
+        }
+        return text.toString();
+    }
+
+    static byte[] hash(ByteBuffer source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(source.duplicate());
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Returns the cached program, or null if there is no valid entry
+    static Program load(Path path, byte[] hash) {
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < HEADER_LENGTH || in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            byte[] stored = new byte[HASH_LENGTH];
+            in.get(stored);
+            if (!Arrays.equals(stored, hash) || in.getInt() != checksum(in.slice())) {
+                return null;
+            }
+            AstReader reader = new AstReader(in.slice());
+            List<Stmt> statements = reader.readStatements();
+            return new Program(statements, reader.lines(), new ErrorLog());
+        } catch (IOException | RuntimeException e) {
+            return null; // Unreadable or corrupt entries are simply rebuilt
+        }
+    }
+
+    private static int checksum(ByteBuffer body) {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    static void store(Path path, byte[] hash, List<Stmt> statements, LineTable lines) {
+        AstWriter writer = new AstWriter();
+        writer.writeStatements(statements, lines);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] body = writer.toByteArray();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).put(hash).putInt(checksum(ByteBuffer.wrap(body)));
+        out.write(header.array(), 0, header.capacity());
+        out.write(body, 0, body.length);
+
+        // Write to a temporary file first so concurrent runs never see half an entry
+        try {
+            Path directory = path.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, ".loxc", ".tmp");
+            try {
+                Files.write(temp, out.toByteArray());
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            // Running without a cache entry is fine
+        }
+    }
+}
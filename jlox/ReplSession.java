@@ -0,0 +1,38 @@
+// What the REPL keeps from one line to the next. Each line is scanned,
+// parsed, resolved and run on its own, and once it has run nothing refers to
+// its tokens or AST but the functions and classes it defined, so a long
+// session only grows with the state the program itself holds on to.
+//
+// One Resolver serves the whole session. Globals are looked up by slot when
+// they run rather than resolved, so the scope it carries between lines is
+// the global one and a line only needs resolving against itself.
+public class ReplSession {
+    // Typed on a line of its own, prints the session's size instead of running Lox
+    static final String STATS_COMMAND = ":stats";
+
+    private final Interpreter interpreter;
+    private final Resolver resolver = new Resolver();
+    private long lines = 0;
+
+    ReplSession(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    void evaluate(String line) {
+        if (line.trim().equals(STATS_COMMAND)) {
+            System.out.println(stats());
+            return;
+        }
+        lines++;
+        Lox.run(new Scanner(line).tokens(), resolver);
+    }
+
+    // Heap is measured after a collection, so a session that leaks nothing stays flat
+    String stats() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heap = runtime.totalMemory() - runtime.freeMemory();
+        return lines + " lines, " + interpreter.globals.getGlobals().size() + " globals, "
+                + SymbolTable.size() + " symbols, " + (heap + 1023) / 1024 + " KB heap in use";
+    }
+}
@@ -2,22 +2,69 @@ import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
-    private final Interpreter interpreter;
     private final Stack<Map<String, Boolean>> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
+    // The function being resolved, and the first return in it that has a value
+    private Stmt.Function currentDeclaration = null;
+    private int valueReturn = -1;
+    // Of the code being resolved, to give errors their line
+    private LineTable lines;
     private enum ClassType {
         NONE, CLASS , SUBCLASS
     }
     private ClassType currentClass = ClassType.NONE;
+    private boolean hadError = false;
+
+    // Everything needed to resolve a lazily parsed function body later as if
+    // it had been resolved in place
+    static final class Context {
+        private final Stack<Map<String, Boolean>> scopes;
+        private final FunctionType type;
+        private final ClassType currentClass;
+
+        private Context(Stack<Map<String, Boolean>> scopes, FunctionType type, ClassType currentClass) {
+            this.scopes = scopes;
+            this.type = type;
+            this.currentClass = currentClass;
+        }
+    }
+
+    public Resolver() {
+    }
+
+    private Resolver(Context context) {
+        for (Map<String, Boolean> scope : context.scopes) {
+            scopes.push(new HashMap<>(scope));
+        }
+        currentClass = context.currentClass;
+    }
 
-    public Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    // Resolves a body that was parsed after its declaration had been resolved.
+    // Returns false if it reported an error.
+    static boolean resolveBody(Context context, Stmt.Function stmt, List<Stmt> body) {
+        Resolver resolver = new Resolver(context);
+        resolver.lines = stmt.lines;
+        resolver.resolveFunction(stmt, body, context.type);
+        return !resolver.hadError;
     }
 
-    public void resolve(List<Stmt> statements) {
+    // lines is the line table of the source the statements were parsed from
+    public void resolve(List<Stmt> statements, LineTable lines) {
+        this.lines = lines;
+        resolve(statements);
+    }
+
+    public void resolve(Stmt stmt, LineTable lines) {
+        this.lines = lines;
+        resolve(stmt);
+    }
+
+    private void resolve(List<Stmt> statements) {
         for (Stmt stmt : statements) {
             resolve(stmt);
         }
@@ -28,16 +75,39 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     private Void resolveFunction(Stmt.Function stmt , FunctionType type) {
+        if (stmt.lazyBody != null && stmt.body == null) {
+            // Not parsed yet: remember the scopes it sees and resolve it on first call
+            Stack<Map<String, Boolean>> snapshot = new Stack<>();
+            for (Map<String, Boolean> scope : scopes) {
+                snapshot.push(new HashMap<>(scope));
+            }
+            stmt.lazyBody.capture(new Context(snapshot, type, currentClass));
+            return null;
+        }
+        return resolveFunction(stmt, stmt.body, type);
+    }
+
+    private Void resolveFunction(Stmt.Function stmt, List<Stmt> body, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
+        Stmt.Function enclosingDeclaration = currentDeclaration;
+        int enclosingReturn = valueReturn;
         currentFunction = type;
+        currentDeclaration = stmt;
+        valueReturn = -1;
         beginScope();
-        for (Token param : stmt.params) {
-            declare(param);
-            define(param);
+        // Parameters keep no position of their own; their errors point at the function's name
+        for (int param : stmt.params) {
+            declare(param, stmt.position);
+            define(param, stmt.position);
         }
-        resolve(stmt.body);
+        resolve(body);
         endScope();
+        if (stmt.generator && valueReturn != -1) {
+            error(valueReturn, "return", "Can't return a value from a generator.");
+        }
         currentFunction = enclosingFunction;
+        currentDeclaration = enclosingDeclaration;
+        valueReturn = enclosingReturn;
         return null;
     }
 
@@ -45,6 +115,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         expr.accept(this);
     }
 
+    private void error(int position, String lexeme, String message) {
+        hadError = true;
+        Lox.error(lines.line(position), lexeme, message);
+    }
+
     private void beginScope() {
         scopes.push(new HashMap<String, Boolean>());
     }
@@ -53,37 +128,53 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         scopes.pop();
     }
 
-    private void declare(Token name) {
+    // name is a symbol id, and position where it appears
+    private void declare(int name, int position) {
         if (scopes.isEmpty())
             return;
         Map<String, Boolean> scope = scopes.peek();
-        if (scope.containsKey(name.lexeme)) {
-            Lox.error(name, "Variable with this name already declared in this scope.");
+        String lexeme = SymbolTable.name(name);
+        if (scope.containsKey(lexeme)) {
+            error(position, lexeme, "Variable with this name already declared in this scope.");
         }
-        scope.put(name.lexeme, false); // Mark as declared but not defined
+        scope.put(lexeme, false); // Mark as declared but not defined
     }
 
-    private void define(Token name) {
+    private void define(int name, int position) {
         if (scopes.isEmpty())
             return;
         Map<String, Boolean> scope = scopes.peek();
-        if (!scope.containsKey(name.lexeme)) {
-            Lox.error(name, "Cannot define variable that was not declared.");
+        String lexeme = SymbolTable.name(name);
+        if (!scope.containsKey(lexeme)) {
+            error(position, lexeme, "Cannot define variable that was not declared.");
             return;
         }
-        scope.put(name.lexeme, true); // Mark as defined
+        scope.put(lexeme, true); // Mark as defined
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    private void resolveLocal(Expr expr, String name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
             Map<String, Boolean> scope = scopes.get(i);
-            if (scope.containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
+            if (scope.containsKey(name)) {
+                setDepth(expr, scopes.size() - 1 - i);
                 return;
             }
         }
     }
 
+    // The depth lives on the node itself, so it goes away with the code
+    private void setDepth(Expr expr, int depth) {
+        if (expr instanceof Expr.Variable) {
+            ((Expr.Variable) expr).depth = depth;
+        } else if (expr instanceof Expr.Assign) {
+            ((Expr.Assign) expr).depth = depth;
+        } else if (expr instanceof Expr.This) {
+            ((Expr.This) expr).depth = depth;
+        } else if (expr instanceof Expr.Super) {
+            ((Expr.Super) expr).depth = depth;
+        }
+    }
+
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
         beginScope();
@@ -94,33 +185,36 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVariableStmt(Stmt.Variable stmt) {
-        declare(stmt.name);
-        resolve(stmt.initializer);
-        define(stmt.name);
+        declare(stmt.name, stmt.position);
+        if (stmt.initializer != null) {
+            resolve(stmt.initializer);
+        }
+        define(stmt.name, stmt.position);
         return null;
     }
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-            Lox.error(expr.name, "Cannot read variable in its own initializer.");
+        String name = SymbolTable.name(expr.name);
+        if (!scopes.isEmpty() && scopes.peek().get(name) == Boolean.FALSE) {
+            error(expr.position, name, "Cannot read variable in its own initializer.");
         }
 
-        resolveLocal(expr, expr.name);
+        resolveLocal(expr, name);
         return null;
     }
 
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        resolveLocal(expr, SymbolTable.name(expr.name));
         return null;
     }
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
-        define(stmt.name);
+        declare(stmt.name, stmt.position);
+        define(stmt.name, stmt.position);
         resolveFunction(stmt , FunctionType.FUNCTION);
         return null;
     }
@@ -150,14 +244,74 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if (currentFunction == FunctionType.NONE) {
-            Lox.error(stmt.keyword, "Cannot return from top-level code.");
+            error(stmt.position, "return", "Cannot return from top-level code.");
         }
         if (stmt.value != null) {
+            if (valueReturn == -1) valueReturn = stmt.position;
             resolve(stmt.value);
         }
         return null;
     }
 
+    // A function that yields anywhere in its own body is a generator
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        if (currentFunction == FunctionType.NONE) {
+            error(stmt.position, "yield", "Can't yield from top-level code.");
+        } else if (currentFunction == FunctionType.INITIALIZER) {
+            error(stmt.position, "yield", "Can't yield from an initializer.");
+        } else {
+            currentDeclaration.generator = true;
+        }
+        if (stmt.value != null) {
+            resolve(stmt.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitForInStmt(Stmt.ForIn stmt) {
+        resolve(stmt.iterable);
+        beginScope();
+        declare(stmt.name, stmt.position);
+        define(stmt.name, stmt.position);
+        resolve(stmt.body);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitSwitchStmt(Stmt.Switch stmt) {
+        resolve(stmt.subject);
+        for (Stmt.Switch.Case c : stmt.cases) {
+            beginScope();
+            resolve(c.body);
+            endScope();
+        }
+        if (stmt.defaultBranch != null) {
+            beginScope();
+            resolve(stmt.defaultBranch);
+            endScope();
+        }
+        Set<Object> labels = new HashSet<>();
+        for (Stmt.Switch.Case c : stmt.cases) {
+            for (Object label : c.labels) {
+                if (!labels.add(label)) {
+                    error(c.position, "case", "Duplicate case label.");
+                }
+            }
+        }
+        stmt.table = JumpTable.build(stmt.cases);
+        return null;
+    }
+
+    // A module is resolved on its own when it is compiled; importing it only
+    // defines globals, which need no resolving
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        return null;
+    }
+
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
         resolve(stmt.condition);
@@ -210,12 +364,13 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitClassStmt(Stmt.Class stmt) {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
-        declare(stmt.name);
-        define(stmt.name);
+        declare(stmt.name, stmt.position);
+        define(stmt.name, stmt.position);
         if(stmt.superclass != null) {
             currentClass = ClassType.SUBCLASS;
-            if (stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
-                Lox.error(stmt.superclass.name, "A class cannot inherit from itself.");
+            if (stmt.name == stmt.superclass.name) {
+                error(stmt.superclass.position, SymbolTable.name(stmt.superclass.name),
+                        "A class cannot inherit from itself.");
             }
             resolve(stmt.superclass);
         }
@@ -228,6 +383,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         scopes.peek().put("this", true); // 'this' is defined in the class
         for (Stmt.Function method : stmt.methods) {
             FunctionType declarationType = FunctionType.METHOD;
+            if (SymbolTable.name(method.name).equals("init")) {
+                declarationType = FunctionType.INITIALIZER;
+            }
             resolveFunction(method, declarationType);
         }
         endScope();
@@ -254,23 +412,23 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitThisExpr(Expr.This expr) {
         if(currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Cannot use 'this' outside of a class.");
+            error(expr.position, "this", "Cannot use 'this' outside of a class.");
             return null;
         }
-        resolveLocal(expr, expr.keyword);
+        resolveLocal(expr, "this");
         return null;
     }
 
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Cannot use 'super' outside of a class.");
+            error(expr.position, "super", "Cannot use 'super' outside of a class.");
             return null;
         } else if (currentClass != ClassType.SUBCLASS) {
-            Lox.error(expr.keyword, "Cannot use 'super' in a class with no superclass.");
+            error(expr.position, "super", "Cannot use 'super' in a class with no superclass.");
             return null;
         }
-        resolveLocal(expr, expr.keyword);
+        resolveLocal(expr, "super");
         return null;
     }
 }
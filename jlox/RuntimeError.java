@@ -1,8 +1,47 @@
 public class RuntimeError extends RuntimeException {
-    final Token token;
+    static final int NOWHERE = -1;
 
-    RuntimeError(Token token, String message) {
+    // Source offset of what failed, or NOWHERE
+    final int position;
+    // The line table of the program position is in. Only a function or a
+    // top level knows which program is running, so the first one the error
+    // leaves sets it.
+    private LineTable lines;
+
+    RuntimeError(int position, String message) {
         super(message);
-        this.token = token;
+        this.position = position;
+    }
+
+    // Errors raised outside any call, like a time limit, or by a native,
+    // which the call expression gives its own position to
+    RuntimeError(String message) {
+        this(NOWHERE, message);
+    }
+
+    // Points at the same place as cause, with a message of its own
+    RuntimeError(RuntimeError cause, String message) {
+        this(cause.position, message);
+        this.lines = cause.lines;
+    }
+
+    RuntimeError locate(LineTable lines) {
+        if (this.lines == null) {
+            this.lines = lines;
+        }
+        return this;
+    }
+
+    // 0 if the error has no position, or has not left its program yet
+    int line() {
+        if (position == NOWHERE || lines == null) return 0;
+        return lines.line(position);
+    }
+
+    // The message and line, as they are shown to the user
+    String report() {
+        int line = line();
+        if (line == 0) return getMessage();
+        return getMessage() + "\n[line " + line + "]";
     }
 }
@@ -1,9 +1,12 @@
 import java.util.ArrayList;
 import java.util.List;
 
-public class Scanner {
+public class Scanner implements TokenSource {
     private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    private final int end;
+    private final LineTable lines;
+    private final TokenBuffer tokens;
+    private boolean reachedEnd = false;
     private int start = 0;
     private int current = 0;
     private int line = 1;
@@ -28,23 +31,77 @@ public class Scanner {
         keywords.put("true", TokenType.TRUE);
         keywords.put("var", TokenType.VAR);
         keywords.put("while", TokenType.WHILE);
+        keywords.put("switch", TokenType.SWITCH);
+        keywords.put("case", TokenType.CASE);
+        keywords.put("default", TokenType.DEFAULT);
+        keywords.put("import", TokenType.IMPORT);
+        keywords.put("yield", TokenType.YIELD);
+        keywords.put("in", TokenType.IN);
     }
 
     public Scanner(String source) {
+        this(source, 0, source.length(), 1, new LineTable());
+    }
+
+    // Scans only source[start, end), as when re-reading a lazily parsed body,
+    // whose lines are already in lines
+    private Scanner(String source, int start, int end, int line, LineTable lines) {
         this.source = source;
+        this.end = end;
+        this.current = start;
+        this.line = line;
+        this.lines = lines;
+        this.tokens = new TokenBuffer(this, lines);
     }
 
     public List<Token> scanTokens() {
+        while (scanNext()) {
+        }
+        List<Token> scanned = new ArrayList<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            scanned.add(tokens.token(i));
+        }
+        return scanned;
+    }
+
+    // Tokens are scanned on demand as the parser reads the buffer
+    public TokenBuffer tokens() {
+        return tokens;
+    }
+
+    @Override
+    public boolean scanNext() {
+        if (reachedEnd) return false;
+        int scanned = tokens.size();
         while (!isAtEnd()) {
             start = current;
             scanToken();
+            if (tokens.size() > scanned) return true;
         }
-        tokens.add(new Token(TokenType.EOF, "", null, line));
-        return tokens;
+        tokens.add(TokenType.EOF, current, 0, line);
+        reachedEnd = true;
+        return true;
+    }
+
+    @Override
+    public TokenBuffer rescan(int start, int end, int line) {
+        return new Scanner(source, start, end, line, lines).tokens();
+    }
+
+    @Override
+    public String lexeme(int start, int length) {
+        return SymbolTable.intern(source, start, start + length);
+    }
+
+    // REPL lines come through here, and interning their literals would keep
+    // every number and string ever typed alive for the rest of the session
+    @Override
+    public String literal(int start, int length) {
+        return source.substring(start, start + length);
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= end;
     }
 
     private void scanToken() {
@@ -80,6 +137,9 @@ public class Scanner {
             case '*':
                 addToken(TokenType.STAR);
                 break;
+            case ':':
+                addToken(TokenType.COLON);
+                break;
             case '/':
                 if (match('/')) {
                     // Single-line comment
@@ -92,12 +152,13 @@ public class Scanner {
                             advance(); // consume '/'
                             break;
                         }
-                        if (peek() == '\n') line++;
+                        if (peek() == '\n') newline(current + 1);
                         advance();
                     }
                 } else {
                     addToken(TokenType.SLASH);
                 }
+                break;
             case '!':
                 addToken(match('=') ? TokenType.BANG_EQUAL : TokenType.BANG);
                 break;
@@ -117,7 +178,7 @@ public class Scanner {
                 // Ignore whitespace
                 break;
             case '\n':
-                line++;
+                newline(current);
                 break;
             
             // Add more cases for other characters and keywords as needed
@@ -140,13 +201,14 @@ public class Scanner {
         return source.charAt(current++);
     }
 
-    private void addToken(TokenType type) {
-        addToken(type, null);
+    // start is the offset just past the newline
+    private void newline(int start) {
+        line++;
+        lines.add(start);
     }
 
-    private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+    private void addToken(TokenType type) {
+        tokens.add(type, start, current - start, line);
     }
 
     private boolean match(char expected) {
@@ -162,7 +224,7 @@ public class Scanner {
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length()) return '\0';
+        if (current + 1 >= end) return '\0';
         return source.charAt(current + 1);
     }
 
@@ -172,7 +234,7 @@ public class Scanner {
 
     private void string() {
         while (peek() != '"' && !isAtEnd()) {
-            if (peek() == '\n') line++;
+            if (peek() == '\n') newline(current + 1);
             advance();
         }
         // Unterminated string
@@ -182,8 +244,7 @@ public class Scanner {
         }
         // The closing quote
         advance();
-        String value = source.substring(start + 1, current - 1); // Exclude the quotes
-        addToken(TokenType.STRING, value);
+        addToken(TokenType.STRING);
     }
 
     private void number() {
@@ -193,7 +254,7 @@ public class Scanner {
             advance(); // consume '.'
             while (isDigit(peek())) advance();
         }
-        addToken(TokenType.NUMBER, Double.parseDouble(source.substring(start, current)));
+        addToken(TokenType.NUMBER);
     }   
 
     private boolean isAlpha(char c) {
@@ -206,7 +267,7 @@ public class Scanner {
 
     private void identifier() {
         while (isAlphaNumeric(peek())) advance();
-        String text = source.substring(start, current);
+        String text = SymbolTable.intern(source, start, current);
         TokenType type = keywords.get(text);
         if (type == null) type = TokenType.IDENTIFIER;
         addToken(type);
@@ -0,0 +1,164 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Reads a file written by SnapshotWriter into an interpreter's globals. The
+// snapshot's own globals become the interpreter's, so restored functions see
+// the variables the script defines afterwards. Natives are looked up by name
+// in the running interpreter rather than restored.
+public class SnapshotReader {
+    private final ByteBuffer in;
+    private final List<Stmt> declarations;
+    private final List<Object> objects = new ArrayList<>();
+
+    private SnapshotReader(ByteBuffer in, List<Stmt> declarations) {
+        this.in = in;
+        this.declarations = declarations;
+    }
+
+    // Throws IllegalStateException if the file is not a snapshot this version
+    // can read, or if it is damaged
+    static void restore(Enviroment globals, Path path) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (in.remaining() < 16 || in.getInt() != SnapshotWriter.MAGIC) {
+            throw new IllegalStateException("Not a snapshot.");
+        }
+        if (in.getInt() != SnapshotWriter.FORMAT_VERSION) {
+            throw new IllegalStateException("Snapshot is from another version.");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(in.duplicate().position(0).limit(in.limit() - 4));
+        if (in.getInt(in.limit() - 4) != (int) crc.getValue()) {
+            throw new IllegalStateException("Snapshot is damaged.");
+        }
+        in.limit(in.limit() - 4);
+
+        // The checksum matched, so only a bug in SnapshotWriter gets past here
+        // with a file these can't read
+        try {
+            int length = in.getInt();
+            ByteBuffer ast = in.slice();
+            ast.limit(length);
+            in.position(in.position() + length);
+
+            new SnapshotReader(in, new AstReader(ast).readStatements()).readGraph(globals);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException
+                | ClassCastException | NegativeArraySizeException e) {
+            throw new IllegalStateException("Snapshot is damaged.", e);
+        }
+    }
+
+    private void readGraph(Enviroment globals) {
+        for (;;) {
+            int record = in.get();
+            switch (record) {
+                case SnapshotWriter.END:
+                    return;
+                case SnapshotWriter.ROOT:
+                    objects.add(globals);
+                    break;
+                case SnapshotWriter.GLOBALS:
+                    objects.add(new Enviroment());
+                    break;
+                case SnapshotWriter.ENVIRONMENT:
+                    objects.add(new Enviroment(object(in.getInt(), Enviroment.class)));
+                    break;
+                case SnapshotWriter.FUNCTION: {
+                    Stmt.Function declaration = (Stmt.Function) declarations.get(in.getInt());
+                    Enviroment closure = object(in.getInt(), Enviroment.class);
+                    objects.add(new LoxFunction(declaration, closure, in.get() != 0));
+                    break;
+                }
+                case SnapshotWriter.CLASS: {
+                    String name = readName();
+                    int superclass = in.getInt();
+                    objects.add(new LoxClass(name, superclass < 0 ? null : object(superclass, LoxClass.class),
+                            new IdentityHashMap<>()));
+                    break;
+                }
+                case SnapshotWriter.INSTANCE:
+                    objects.add(new LoxInstance(object(in.getInt(), LoxClass.class)));
+                    break;
+                case SnapshotWriter.LIST:
+                    objects.add(new LoxList());
+                    break;
+                case SnapshotWriter.NATIVE: {
+                    String name = readString();
+                    LoxNative bound = Natives.named(name);
+                    if (bound == null) {
+                        throw new IllegalStateException("No native function '" + name + "'.");
+                    }
+                    objects.add(bound);
+                    break;
+                }
+                case SnapshotWriter.CONTENTS:
+                    readContents(objects.get(in.getInt()));
+                    break;
+                default:
+                    throw new IllegalStateException("Bad snapshot record " + record + ".");
+            }
+        }
+    }
+
+    private void readContents(Object object) {
+        int count = in.getInt();
+        if (object instanceof LoxList) {
+            for (int i = 0; i < count; i++) {
+                ((LoxList) object).add(readValue());
+            }
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            String name = readName();
+            Object value = readValue();
+            if (object instanceof Enviroment) {
+                ((Enviroment) object).define(name, value);
+            } else if (object instanceof LoxClass) {
+                ((LoxClass) object).getMethods().put(name, (LoxFunction) value);
+            } else {
+                ((LoxInstance) object).getFields().put(name, value);
+            }
+        }
+    }
+
+    private Object readValue() {
+        int tag = in.get();
+        switch (tag) {
+            case SnapshotWriter.NIL: return null;
+            case SnapshotWriter.FALSE: return false;
+            case SnapshotWriter.TRUE: return true;
+            case SnapshotWriter.NUMBER: return in.getDouble();
+            case SnapshotWriter.STRING: return readString();
+            case SnapshotWriter.REFERENCE: return objects.get(in.getInt());
+            default: throw new IllegalStateException("Bad snapshot value " + tag + ".");
+        }
+    }
+
+    private <T> T object(int id, Class<T> type) {
+        Object object = objects.get(id);
+        if (!type.isInstance(object)) {
+            throw new IllegalStateException("Bad snapshot reference " + id + ".");
+        }
+        return type.cast(object);
+    }
+
+    // Names must be interned: environments, methods and fields are identity maps.
+    // String values are not, since the symbol table never lets go of what it holds.
+    private String readName() {
+        return SymbolTable.intern(readString());
+    }
+
+    private String readString() {
+        byte[] utf8 = new byte[in.getInt()];
+        in.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+}
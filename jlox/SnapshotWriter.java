@@ -0,0 +1,240 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Writes the state reachable from an interpreter's globals to a file, so a
+// later run can start from it instead of running the code that built it.
+//
+// The file ends with a CRC32 of everything before it, so a truncated or
+// damaged snapshot is refused before any of it is restored.
+//
+// After the header comes the AST of every function declaration the state
+// refers to, written by AstWriter, then a stream of records. A shell record
+// creates one object from the parts its constructor needs: an environment's
+// enclosing environment, a function's closure, a class's superclass or an
+// instance's class. Those references never form a cycle, so shells are
+// written after the shells they refer to. A contents record then fills in
+// an object's variables, methods, fields or elements, which may refer to
+// anything.
+// Natives are written by name and re-bound when the snapshot is read.
+public class SnapshotWriter {
+    static final int MAGIC = 0x4C4F5853; // "LOXS"
+    static final int FORMAT_VERSION = 5;
+
+    // Records
+    static final int END = 0;
+    static final int ROOT = 1;
+    static final int ENVIRONMENT = 2;
+    static final int GLOBALS = 3;
+    static final int FUNCTION = 4;
+    static final int CLASS = 5;
+    static final int INSTANCE = 6;
+    static final int NATIVE = 7;
+    static final int CONTENTS = 8;
+    static final int LIST = 9;
+
+    // Values
+    static final int NIL = 0;
+    static final int FALSE = 1;
+    static final int TRUE = 2;
+    static final int NUMBER = 3;
+    static final int STRING = 4;
+    static final int REFERENCE = 5;
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+    private final Map<Object, Integer> ids = new IdentityHashMap<>();
+    private final Map<Stmt.Function, Integer> declarations = new IdentityHashMap<>();
+    private final List<Stmt> declarationList = new ArrayList<>();
+    // Objects whose shell is written but whose contents are not yet
+    private final Deque<Object> unfilled = new ArrayDeque<>();
+
+    static void save(Enviroment globals, Path path) throws IOException {
+        SnapshotWriter writer = new SnapshotWriter();
+        writer.writeGraph(globals);
+
+        AstWriter ast = new AstWriter();
+        ast.writeStatements(writer.declarationList, null);
+        byte[] declarations = ast.toByteArray();
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream(declarations.length + writer.bytes.size() + 16);
+        DataOutputStream header = new DataOutputStream(file);
+        header.writeInt(MAGIC);
+        header.writeInt(FORMAT_VERSION);
+        header.writeInt(declarations.length);
+        header.write(declarations);
+        writer.bytes.writeTo(file);
+        CRC32 crc = new CRC32();
+        crc.update(file.toByteArray());
+        header.writeInt((int) crc.getValue());
+
+        Path temporary = Files.createTempFile(path.toAbsolutePath().getParent(), ".snapshot", ".tmp");
+        try {
+            Files.write(temporary, file.toByteArray());
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private void writeGraph(Enviroment globals) throws IOException {
+        ids.put(globals, ids.size());
+        out.writeByte(ROOT);
+        unfilled.add(globals);
+        while (!unfilled.isEmpty()) {
+            writeContents(unfilled.poll());
+        }
+        out.writeByte(END);
+    }
+
+    // Writes the object's shell if it has none yet
+    private int idOf(Object object) throws IOException {
+        Integer id = ids.get(object);
+        if (id != null) return id;
+
+        if (object instanceof Enviroment) {
+            Enviroment environment = (Enviroment) object;
+            if (environment.enclosing == null) {
+                out.writeByte(GLOBALS);
+            } else {
+                int enclosing = idOf(environment.enclosing);
+                out.writeByte(ENVIRONMENT);
+                out.writeInt(enclosing);
+            }
+        } else if (object instanceof LoxFunction) {
+            LoxFunction function = (LoxFunction) object;
+            int closure = idOf(function.getClosure());
+            out.writeByte(FUNCTION);
+            out.writeInt(declarationOf(function.getDeclaration()));
+            out.writeInt(closure);
+            out.writeBoolean(function.isInitializer());
+        } else if (object instanceof LoxClass) {
+            LoxClass klass = (LoxClass) object;
+            int superclass = klass.getSuperclass() == null ? -1 : idOf(klass.getSuperclass());
+            out.writeByte(CLASS);
+            writeString(klass.getName());
+            out.writeInt(superclass);
+        } else if (object instanceof LoxInstance) {
+            int klass = idOf(((LoxInstance) object).getKlass());
+            out.writeByte(INSTANCE);
+            out.writeInt(klass);
+        } else if (object instanceof LoxList) {
+            out.writeByte(LIST);
+        } else if (object instanceof LoxNative) {
+            out.writeByte(NATIVE);
+            writeString(((LoxNative) object).getName());
+        } else {
+            throw new IllegalStateException("Cannot snapshot " + object + ".");
+        }
+
+        id = ids.size();
+        ids.put(object, id);
+        if (!(object instanceof LoxNative)) {
+            unfilled.add(object);
+        }
+        return id;
+    }
+
+    private void writeContents(Object object) throws IOException {
+        if (object instanceof LoxList) {
+            writeElements((LoxList) object);
+            return;
+        }
+        Map<String, ?> entries;
+        if (object instanceof Enviroment) {
+            Enviroment environment = (Enviroment) object;
+            entries = environment.enclosing == null ? environment.getGlobals() : environment.getValues();
+        } else if (object instanceof LoxClass) {
+            entries = ((LoxClass) object).getMethods();
+        } else if (object instanceof LoxInstance) {
+            entries = ((LoxInstance) object).getFields();
+        } else {
+            return; // A function's state is all in its shell
+        }
+
+        // Shells of the values go out first, so the record only refers back
+        List<String> names = new ArrayList<>(entries.keySet());
+        List<Object> values = new ArrayList<>(names.size());
+        for (String name : names) {
+            Object value = entries.get(name);
+            if (value instanceof CharSequence) {
+                value = LoxRope.flatten(value);
+            } else if (value != null && !(value instanceof Boolean) && !(value instanceof Double)) {
+                idOf(value);
+            }
+            values.add(value);
+        }
+
+        out.writeByte(CONTENTS);
+        out.writeInt(ids.get(object));
+        out.writeInt(names.size());
+        for (int i = 0; i < names.size(); i++) {
+            writeString(names.get(i));
+            writeValue(values.get(i));
+        }
+    }
+
+    // A list's contents record has values but no names
+    private void writeElements(LoxList list) throws IOException {
+        Object[] elements = list.toArray();
+        for (int i = 0; i < elements.length; i++) {
+            Object value = elements[i];
+            if (value instanceof CharSequence) {
+                elements[i] = LoxRope.flatten(value);
+            } else if (value != null && !(value instanceof Boolean) && !(value instanceof Double)) {
+                idOf(value);
+            }
+        }
+
+        out.writeByte(CONTENTS);
+        out.writeInt(ids.get(list));
+        out.writeInt(elements.length);
+        for (Object element : elements) {
+            writeValue(element);
+        }
+    }
+
+    private void writeValue(Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NIL);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Double) {
+            out.writeByte(NUMBER);
+            out.writeDouble((Double) value);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString((String) value);
+        } else {
+            out.writeByte(REFERENCE);
+            out.writeInt(ids.get(value));
+        }
+    }
+
+    private int declarationOf(Stmt.Function declaration) {
+        Integer index = declarations.get(declaration);
+        if (index == null) {
+            index = declarationList.size();
+            declarations.put(declaration, index);
+            declarationList.add(declaration);
+        }
+        return index;
+    }
+
+    private void writeString(String text) throws IOException {
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+}
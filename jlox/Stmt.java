@@ -1,5 +1,6 @@
 import java.util.List;
 
+// Like Expr nodes, statements keep symbol ids and source offsets rather than Tokens
 public abstract class Stmt {
 
     interface Visitor<R> {
@@ -12,6 +13,10 @@ public abstract class Stmt {
         R visitFunctionStmt(Function stmt);
         R visitReturnStmt(Return stmt);
         R visitClassStmt(Class stmt);
+        R visitSwitchStmt(Switch stmt);
+        R visitImportStmt(Import stmt);
+        R visitYieldStmt(Yield stmt);
+        R visitForInStmt(ForIn stmt);
     }
 
     static class Expression extends Stmt {
@@ -41,11 +46,17 @@ public abstract class Stmt {
     }
 
     static class Variable extends Stmt {
-        final Token name;
+        final int name;
+        final int position;
         final Expr initializer;
 
         Variable(Token name, Expr initializer) {
+            this(SymbolTable.id(name.lexeme), name.offset, initializer);
+        }
+
+        Variable(int name, int position, Expr initializer) {
             this.name = name;
+            this.position = position;
             this.initializer = initializer;
         }
 
@@ -104,14 +115,58 @@ public abstract class Stmt {
     }
 
     static class Function extends Stmt {
-        final Token name;
-        final List<Token> params;
-        final List<Stmt> body;
+        final int name;
+        final int position;
+        // Symbol ids of the parameters
+        final int[] params;
+        // Of the program the function is in, which its errors are reported against
+        final LineTable lines;
+        // Null until a lazily parsed body has been compiled
+        volatile List<Stmt> body;
+        final LazyBody lazyBody;
+        // Set by the Resolver if the body yields, before the body is published
+        boolean generator = false;
+
+        Function(Token name, List<Token> params, LineTable lines, List<Stmt> body) {
+            this(SymbolTable.id(name.lexeme), name.offset, ids(params), lines, body);
+        }
 
-        Function(Token name, List<Token> params, List<Stmt> body) {
+        Function(Token name, List<Token> params, LineTable lines, LazyBody lazyBody) {
+            this(SymbolTable.id(name.lexeme), name.offset, ids(params), lines, lazyBody);
+        }
+
+        Function(int name, int position, int[] params, LineTable lines, List<Stmt> body) {
             this.name = name;
+            this.position = position;
             this.params = params;
+            this.lines = lines;
             this.body = body;
+            this.lazyBody = null;
+        }
+
+        Function(int name, int position, int[] params, LineTable lines, LazyBody lazyBody) {
+            this.name = name;
+            this.position = position;
+            this.params = params;
+            this.lines = lines;
+            this.lazyBody = lazyBody;
+        }
+
+        private static int[] ids(List<Token> params) {
+            int[] ids = new int[params.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = SymbolTable.id(params.get(i).lexeme);
+            }
+            return ids;
+        }
+
+        // Parses and resolves a lazy body the first time it is needed
+        List<Stmt> body() {
+            List<Stmt> statements = body;
+            if (statements == null) {
+                statements = lazyBody.compile(this);
+            }
+            return statements;
         }
 
         @Override
@@ -122,11 +177,11 @@ public abstract class Stmt {
     }
 
     static class Return extends Stmt {
-        final Token keyword;
+        final int position;
         final Expr value;
 
-        Return(Token keyword, Expr value) {
-            this.keyword = keyword;
+        Return(int position, Expr value) {
+            this.position = position;
             this.value = value;
         }
 
@@ -138,12 +193,18 @@ public abstract class Stmt {
     }
 
     static class Class extends Stmt {
-        final Token name;
+        final int name;
+        final int position;
         final List<Stmt.Function> methods;
         final Expr.Variable superclass;
 
         Class(Token name, Expr.Variable superclass , List<Stmt.Function> methods) {
+            this(SymbolTable.id(name.lexeme), name.offset, superclass, methods);
+        }
+
+        Class(int name, int position, Expr.Variable superclass, List<Stmt.Function> methods) {
             this.name = name;
+            this.position = position;
             this.methods = methods;
             this.superclass = superclass;
         }
@@ -155,6 +216,94 @@ public abstract class Stmt {
         }
     }
 
+    static class Switch extends Stmt {
+        final int position;
+        final Expr subject;
+        final List<Case> cases;
+        final List<Stmt> defaultBranch;
+        // Built by the Resolver once the case labels are known
+        JumpTable table;
+
+        Switch(int position, Expr subject, List<Case> cases, List<Stmt> defaultBranch) {
+            this.position = position;
+            this.subject = subject;
+            this.cases = cases;
+            this.defaultBranch = defaultBranch;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitSwitchStmt(this);
+        }
+
+        static class Case {
+            final int position;
+            final List<Object> labels;
+            final List<Stmt> body;
+
+            Case(int position, List<Object> labels, List<Stmt> body) {
+                this.position = position;
+                this.labels = labels;
+                this.body = body;
+            }
+        }
+    }
+
+
+    // import "path"; which is only allowed at the top level of a script
+    static class Import extends Stmt {
+        final int position;
+        final String path;
+
+        Import(int position, String path) {
+            this.position = position;
+            this.path = path;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitImportStmt(this);
+        }
+    }
+
+    static class Yield extends Stmt {
+        final int position;
+        final Expr value;
+
+        Yield(int position, Expr value) {
+            this.position = position;
+            this.value = value;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitYieldStmt(this);
+        }
+    }
+
+    // for (name in iterable) body, with name bound afresh for each value
+    static class ForIn extends Stmt {
+        final int name;
+        final int position;
+        final Expr iterable;
+        final Stmt body;
+
+        ForIn(Token name, Expr iterable, Stmt body) {
+            this(SymbolTable.id(name.lexeme), name.offset, iterable, body);
+        }
+
+        ForIn(int name, int position, Expr iterable, Stmt body) {
+            this.name = name;
+            this.position = position;
+            this.iterable = iterable;
+            this.body = body;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitForInStmt(this);
+        }
+    }
 
     abstract <R> R accept(Visitor<R> visitor);
 }
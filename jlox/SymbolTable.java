@@ -0,0 +1,203 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Interns identifier and keyword lexemes so that every occurrence of a name
+// is the same String object. Literals are left out: entries are never
+// removed, and a long-running process would keep every one it scanned. Entries are canonicalized through
+// String.intern(), so names spelled as Java literals ("this", "init", ...)
+// are identical to the scanned ones too. Runtime maps rely on this and key
+// their entries by identity, so any name that reaches an Enviroment or an
+// instance must come through here.
+//
+// A name also gets a symbol id, numbering names in the order they are first
+// asked for. AST nodes keep the id instead of a Token, and a global variable
+// lives in the cell its name's id indexes in every global environment.
+public class SymbolTable {
+    // Lookups read the table without locking, which is safe because entries
+    // are only ever added and a grown table is published whole. A miss takes
+    // the lock and probes again before inserting.
+    private static volatile String[] entries = new String[1024];
+    private static int count = 0;
+
+    // A name's id is published after its entry in names, so whoever finds
+    // the id also finds the name
+    private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[1024];
+
+    private SymbolTable() {
+    }
+
+    static int id(String name) {
+        Integer id = ids.get(name);
+        return id != null ? id : newId(name);
+    }
+
+    private static synchronized int newId(String name) {
+        Integer id = ids.get(name);
+        if (id != null) return id;
+        String symbol = intern(name);
+        int next = ids.size();
+        String[] table = names;
+        if (next == table.length) {
+            table = Arrays.copyOf(table, next * 2);
+        }
+        table[next] = symbol;
+        names = table;
+        ids.put(symbol, next);
+        return next;
+    }
+
+    // The interned name with this id
+    static String name(int id) {
+        return names[id];
+    }
+
+    // One more than the highest id handed out so far
+    static int ids() {
+        return ids.size();
+    }
+
+    static String intern(String text) {
+        return intern(text, 0, text.length());
+    }
+
+    // Looks up source[start, end) without creating a substring unless the
+    // text has never been seen before
+    static String intern(CharSequence source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+        String entry = find(entries, hash, source, start, end);
+        return entry != null ? entry : insert(hash, source, start, end);
+    }
+
+    private static synchronized String insert(int hash, CharSequence source, int start, int end) {
+        String[] table = entries;
+        int index = slot(table, hash, source, start, end);
+        if (table[index] != null) {
+            return table[index];
+        }
+
+        String text = source.subSequence(start, end).toString().intern();
+        add(table, index, text);
+        return text;
+    }
+
+    // Same lookup over UTF-8 bytes. Identifiers are always ASCII, so they are
+    // hashed straight from the buffer; anything else is decoded first.
+    static String intern(ByteBuffer source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            byte b = source.get(i);
+            if (b < 0) {
+                byte[] bytes = new byte[end - start];
+                source.get(start, bytes);
+                return intern(new String(bytes, StandardCharsets.UTF_8));
+            }
+            hash = 31 * hash + b;
+        }
+        String entry = find(entries, hash, source, start, end);
+        return entry != null ? entry : insert(hash, source, start, end);
+    }
+
+    private static synchronized String insert(int hash, ByteBuffer source, int start, int end) {
+        String[] table = entries;
+        int index = slot(table, hash, source, start, end);
+        if (table[index] != null) {
+            return table[index];
+        }
+
+        char[] chars = new char[end - start];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) source.get(start + i);
+        }
+        String text = new String(chars).intern();
+        add(table, index, text);
+        return text;
+    }
+
+    private static String find(String[] table, int hash, CharSequence source, int start, int end) {
+        return table[slot(table, hash, source, start, end)];
+    }
+
+    private static String find(String[] table, int hash, ByteBuffer source, int start, int end) {
+        return table[slot(table, hash, source, start, end)];
+    }
+
+    // Index of the matching entry, or of the empty slot where it would go
+    private static int slot(String[] table, int hash, CharSequence source, int start, int end) {
+        int mask = table.length - 1;
+        int index = mix(hash) & mask;
+        String entry;
+        while ((entry = table[index]) != null) {
+            if (entry.hashCode() == hash && regionEquals(entry, source, start, end)) {
+                break;
+            }
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private static int slot(String[] table, int hash, ByteBuffer source, int start, int end) {
+        int mask = table.length - 1;
+        int index = mix(hash) & mask;
+        String entry;
+        while ((entry = table[index]) != null) {
+            if (entry.hashCode() == hash && regionEquals(entry, source, start, end)) {
+                break;
+            }
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private static void add(String[] table, int index, String text) {
+        table[index] = text;
+        if (++count * 2 > table.length) {
+            grow();
+        }
+    }
+
+    static synchronized int size() {
+        return count;
+    }
+
+    private static boolean regionEquals(String entry, CharSequence source, int start, int end) {
+        if (entry.length() != end - start) return false;
+        for (int i = 0; i < entry.length(); i++) {
+            if (entry.charAt(i) != source.charAt(start + i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean regionEquals(String entry, ByteBuffer source, int start, int end) {
+        if (entry.length() != end - start) return false;
+        for (int i = 0; i < entry.length(); i++) {
+            if (entry.charAt(i) != source.get(start + i)) return false;
+        }
+        return true;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static void grow() {
+        String[] old = entries;
+        String[] table = new String[old.length * 2];
+        int mask = table.length - 1;
+        for (String entry : old) {
+            if (entry == null) continue;
+            int index = mix(entry.hashCode()) & mask;
+            while (table[index] != null) {
+                index = (index + 1) & mask;
+            }
+            table[index] = entry;
+        }
+        entries = table;
+    }
+}
@@ -3,12 +3,15 @@ public class Token {
     final String lexeme;
     final Object literal;
     final int line;
+    // Where the token starts in the source, which is all an AST node keeps of it
+    final int offset;
 
-    Token(TokenType type, String lexeme, Object literal, int line) {
+    Token(TokenType type, String lexeme, Object literal, int line, int offset) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.offset = offset;
     }
 
     @Override
@@ -0,0 +1,145 @@
+import java.util.Arrays;
+
+// Scanned tokens stored as parallel primitive arrays (type, start offset,
+// length, line). Token objects, with their lexeme and literal, are only
+// created for the tokens the parser actually asks for, and the AST keeps
+// none of them: nodes take a symbol id and an offset into the line table.
+//
+// The buffer is filled on demand: reading past the last scanned token asks
+// the source to scan more. Tokens the parser is finished with can be
+// released, so only the tokens of the current declaration stay in memory.
+// Indexes are absolute positions in the token stream either way.
+public class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final TokenSource source;
+    private final LineTable lineTable;
+    private byte[] types = new byte[256];
+    private int[] starts = new int[256];
+    private int[] lengths = new int[256];
+    private int[] lines = new int[256];
+    private Token[] tokens = new Token[256];
+    // Absolute index of the first token still held, and one past the last
+    private int base = 0;
+    private int count = 0;
+    // Token objects built so far, for --mem-report
+    private int built = 0;
+
+    TokenBuffer(TokenSource source, LineTable lineTable) {
+        this.source = source;
+        this.lineTable = lineTable;
+    }
+
+    // The line table of the source, which the AST keeps
+    LineTable lines() {
+        return lineTable;
+    }
+
+    int built() {
+        return built;
+    }
+
+    void add(TokenType type, int start, int length, int line) {
+        int slot = count - base;
+        if (slot == types.length) {
+            int capacity = Math.max(16, slot * 2);
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            tokens = Arrays.copyOf(tokens, capacity);
+        }
+        types[slot] = (byte) type.ordinal();
+        starts[slot] = start;
+        lengths[slot] = length;
+        lines[slot] = line;
+        count++;
+    }
+
+    // Number of tokens scanned so far
+    int size() {
+        return count;
+    }
+
+    TokenType type(int index) {
+        fill(index);
+        return TYPES[types[index - base]];
+    }
+
+    TokenSource source() {
+        return source;
+    }
+
+    // Offset of the token in the source text
+    int start(int index) {
+        fill(index);
+        return starts[index - base];
+    }
+
+    int line(int index) {
+        fill(index);
+        return lines[index - base];
+    }
+
+    Token token(int index) {
+        fill(index);
+        Token token = tokens[index - base];
+        if (token == null) {
+            token = materialize(index - base);
+            tokens[index - base] = token;
+        }
+        return token;
+    }
+
+    // Drops every token before index; they can no longer be read
+    void release(int index) {
+        int dropped = index - base;
+        if (dropped <= 0) return;
+        int kept = count - index;
+        System.arraycopy(types, dropped, types, 0, kept);
+        System.arraycopy(starts, dropped, starts, 0, kept);
+        System.arraycopy(lengths, dropped, lengths, 0, kept);
+        System.arraycopy(lines, dropped, lines, 0, kept);
+        System.arraycopy(tokens, dropped, tokens, 0, kept);
+        Arrays.fill(tokens, kept, kept + dropped, null);
+        base = index;
+    }
+
+    // Drops every token and the arrays holding them, once the program has
+    // been parsed and resolved. A lazy body is rescanned from the source
+    // into a buffer of its own.
+    void discard() {
+        base = count;
+        types = new byte[0];
+        starts = new int[0];
+        lengths = new int[0];
+        lines = new int[0];
+        tokens = new Token[0];
+    }
+
+    private void fill(int index) {
+        while (index >= count && source != null && source.scanNext()) {
+        }
+    }
+
+    private Token materialize(int slot) {
+        TokenType type = TYPES[types[slot]];
+        built++;
+        if (type == TokenType.EOF) {
+            return new Token(type, "", null, lines[slot], starts[slot]);
+        }
+
+        String lexeme;
+        Object literal = null;
+        if (type == TokenType.NUMBER) {
+            lexeme = source.literal(starts[slot], lengths[slot]);
+            literal = Double.parseDouble(lexeme);
+        } else if (type == TokenType.STRING) {
+            lexeme = source.literal(starts[slot], lengths[slot]);
+            literal = source.literal(starts[slot] + 1, lengths[slot] - 2); // Exclude the quotes
+        } else {
+            lexeme = source.lexeme(starts[slot], lengths[slot]);
+        }
+        return new Token(type, lexeme, literal, lines[slot], starts[slot]);
+    }
+}
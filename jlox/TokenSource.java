@@ -0,0 +1,15 @@
+// Produces tokens into a TokenBuffer and supplies the text of the tokens it stored by offset
+public interface TokenSource {
+    // Scans until at least one more token (possibly EOF) has been added to the
+    // buffer. Returns false once EOF has already been added.
+    boolean scanNext();
+
+    String lexeme(int start, int length);
+
+    // Text of a number or string literal. Unlike a lexeme it is not interned;
+    // literals are only ever compared by value.
+    String literal(int start, int length);
+
+    // Scans source[start, end) again on its own, numbering lines from line
+    TokenBuffer rescan(int start, int end, int line);
+}
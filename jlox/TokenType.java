@@ -1,7 +1,7 @@
 public enum TokenType {
     // Single-character tokens
     LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE,
-    COMMA, DOT, MINUS, PLUS, SEMICOLON, SLASH, STAR,
+    COMMA, DOT, MINUS, PLUS, SEMICOLON, SLASH, STAR, COLON,
 
     // One or two character tokens
     BANG, BANG_EQUAL,
@@ -16,7 +16,7 @@ public enum TokenType {
     AND, CLASS, ELSE, FALSE, FUN,
     FOR, IF, NIL, OR, PRINT,
     RETURN, SUPER, THIS, TRUE,
-    VAR, WHILE,
+    VAR, WHILE, SWITCH, CASE, DEFAULT, IMPORT, YIELD, IN,
 
     EOF
 }